@@ -7,11 +7,13 @@ import org.springframework.boot.context.web.SpringBootServletInitializer;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.data.elasticsearch.repository.config.EnableElasticsearchRepositories;
 import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @EnableAutoConfiguration
 @ComponentScan(basePackages = "org.diveintojee.poc.digitaloceancluster")
 @EnableJpaRepositories(basePackages = "org.diveintojee.poc.digitaloceancluster.app1.persistence.data")
 @EnableElasticsearchRepositories(basePackages = "org.diveintojee.poc.digitaloceancluster.app1.persistence.index")
+@EnableScheduling
 public class App1Application extends SpringBootServletInitializer {
 
 	public static void main(String[] args) {
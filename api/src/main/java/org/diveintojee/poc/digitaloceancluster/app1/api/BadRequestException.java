@@ -0,0 +1,7 @@
+package org.diveintojee.poc.digitaloceancluster.app1.api;
+
+public class BadRequestException extends RuntimeException {
+    public BadRequestException(String message) {
+        super(message);
+    }
+}
@@ -1,17 +1,34 @@
 package org.diveintojee.poc.digitaloceancluster.app1.api;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.common.base.Splitter;
 import org.diveintojee.poc.digitaloceancluster.app1.domain.Domain;
+import org.diveintojee.poc.digitaloceancluster.app1.domain.DomainLookup;
+import org.diveintojee.poc.digitaloceancluster.app1.domain.DomainOperation;
+import org.diveintojee.poc.digitaloceancluster.app1.domain.DomainOperationResult;
+import org.diveintojee.poc.digitaloceancluster.app1.domain.DomainPage;
+import org.diveintojee.poc.digitaloceancluster.app1.domain.DomainSearchResult;
 import org.diveintojee.poc.digitaloceancluster.app1.service.DomainService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
+import javax.persistence.EntityNotFoundException;
+import javax.persistence.OptimisticLockException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
+import java.io.IOException;
 import java.net.URI;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
@@ -25,9 +42,16 @@ public class DomainsResource {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(DomainsResource.class);
 
+    public static final String NDJSON = "application/x-ndjson";
+
+    private static final int DEFAULT_PAGE_SIZE = 100;
+
     @Autowired
     private DomainService service;
 
+    // Results are flushed by the servlet container buffer, not item by item
+    private final ObjectMapper objectMapper = new ObjectMapper().disable(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
     @RequestMapping(method = RequestMethod.POST)
     public ResponseEntity<Void> create(@RequestBody @Valid Domain domain) {
         LOGGER.debug("Attempt to create domain: {}", domain);
@@ -47,20 +71,127 @@ public class DomainsResource {
         return new ResponseEntity<>(headers, HttpStatus.CREATED);
     }
 
+    /**
+     * Applies a stream of {@link DomainOperation}s, sent either as a JSON array or as newline delimited JSON. Results
+     * are streamed back as a JSON array of {@link DomainOperationResult}s, in request order, as chunks are applied.
+     */
+    @RequestMapping(value = "/_bulk", method = RequestMethod.POST)
+    public void bulk(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        LOGGER.debug("Applying bulk domain operations");
+        response.setStatus(HttpStatus.OK.value());
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        final JsonGenerator generator = objectMapper.getFactory().createGenerator(response.getOutputStream());
+        generator.writeStartArray();
+        this.service.bulk(objectMapper.reader(DomainOperation.class).<DomainOperation>readValues(request.getInputStream()),
+                new DomainService.BulkResultHandler() {
+                    @Override
+                    public void handle(DomainOperationResult result) throws IOException {
+                        objectMapper.writeValue(generator, result);
+                    }
+                });
+        generator.writeEndArray();
+        generator.close();
+    }
+
+    /**
+     * Without paging parameters, streams every domain as a JSON array, or as newline delimited JSON when the client
+     * accepts {@value #NDJSON}. With a {@code cursor} or a {@code size}, returns one {@link DomainPage}.
+     */
     @RequestMapping(method = RequestMethod.GET)
-    public List<Domain> findAll() {
+    public void findAll(@RequestParam(value = "cursor", required = false) String cursor,
+                        @RequestParam(value = "size", required = false) Integer size,
+                        @RequestHeader(value = "Accept", required = false) String accept,
+                        @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch,
+                        HttpServletResponse response) throws IOException {
+        if (cursor != null || size != null) {
+            LOGGER.debug("Searching a page of domains after cursor {}", cursor);
+            final DomainPage page;
+            try {
+                page = this.service.findPage(cursor, size == null ? DEFAULT_PAGE_SIZE : size);
+            } catch (IllegalArgumentException e) {
+                throw new BadRequestException(e.getMessage());
+            }
+            response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+            objectMapper.writeValue(response.getOutputStream(), page);
+            return;
+        }
         LOGGER.debug("Searching all domains");
-        return this.service.findAll();
+        final boolean ndjson = accept != null && accept.contains(NDJSON);
+        // No entity tag while the last write may not be searchable yet: the collection streamed now may miss it
+        final String marker = this.service.changeMarker();
+        if (marker != null) {
+            // Weak: the marker tracks changes to the collection, it is not a hash of the representation
+            final String etag = "W/\"" + (ndjson ? "ndjson-" : "json-") + marker + "\"";
+            response.setHeader("ETag", etag);
+            if (matches(ifNoneMatch, etag)) {
+                response.setStatus(HttpStatus.NOT_MODIFIED.value());
+                return;
+            }
+        }
+        response.setContentType(ndjson ? NDJSON : MediaType.APPLICATION_JSON_VALUE);
+        final JsonGenerator generator = objectMapper.getFactory().createGenerator(response.getOutputStream());
+        if (ndjson) {
+            generator.setRootValueSeparator(new SerializedString("\n"));
+        } else {
+            generator.writeStartArray();
+        }
+        this.service.findAll(new DomainService.DomainHandler() {
+            @Override
+            public void handle(Domain domain) throws IOException {
+                objectMapper.writeValue(generator, domain);
+            }
+        });
+        if (ndjson) {
+            generator.writeRaw('\n');
+        } else {
+            generator.writeEndArray();
+        }
+        generator.close();
+    }
+
+    /**
+     * Fetches many domains in one round trip. Missing domains are reported per item.
+     */
+    @RequestMapping(method = RequestMethod.GET, params = "ids")
+    public List<DomainLookup> getAll(@RequestParam("ids") List<Long> ids) {
+        LOGGER.debug("Fetching domains {}", ids);
+        try {
+            return this.service.getAll(ids);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException(e.getMessage());
+        }
     }
 
+    /**
+     * Same as {@link #getAll(List)}, for id lists too long for a query string.
+     */
+    @RequestMapping(value = "/_mget", method = RequestMethod.POST)
+    public List<DomainLookup> getAllByBody(@RequestBody List<Long> ids) {
+        return getAll(ids);
+    }
+
+    /**
+     * @param sort   comma separated {@code field[:asc|desc]} list, fields being {@code _score} or {@code id}, by
+     *               relevance by default
+     * @param fields comma separated fields to return, all by default
+     */
     @RequestMapping(value = "/search", method = RequestMethod.GET)
-    public List<Domain> search(@RequestParam("q") String query) {
+    public DomainSearchResult search(@RequestParam("q") String query,
+                                     @RequestParam(value = "from", defaultValue = "0") int from,
+                                     @RequestParam(value = "size", defaultValue = "10") int size,
+                                     @RequestParam(value = "sort", required = false) String sort,
+                                     @RequestParam(value = "fields", required = false) String fields) {
         LOGGER.debug("Searching domains for which title or description contains {}", query);
-        return this.service.search(query);
+        try {
+            return this.service.search(query, from, size, sort, fields);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException(e.getMessage());
+        }
     }
 
     @RequestMapping(value = "/{id}", method = RequestMethod.GET)
-    public Domain get(@PathVariable("id") Long id) {
+    public ResponseEntity<Domain> get(@PathVariable("id") Long id,
+                                      @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) {
         Domain domain = this.service.getOne(id);
         if (domain == null) {
             final String message = "Domain with id {" + id + "} was not found";
@@ -68,35 +199,93 @@ public class DomainsResource {
             throw new ResourceNotFoundException(message);
         }
         LOGGER.debug("Found domain with id: {}", id);
-        return domain;
+        final HttpHeaders headers = new HttpHeaders();
+        final String etag = etag(domain);
+        headers.setETag(etag);
+        if (matches(ifNoneMatch, etag)) {
+            return new ResponseEntity<>(headers, HttpStatus.NOT_MODIFIED);
+        }
+        return new ResponseEntity<>(domain, headers, HttpStatus.OK);
     }
 
     @RequestMapping(value = "/{id}", method = RequestMethod.PUT)
     @ResponseStatus(value = HttpStatus.NO_CONTENT)
-    public void update(@PathVariable("id") Long id, @RequestBody @Valid Domain domain) {
-        service.update(id, domain);
+    public void update(@PathVariable("id") Long id, @RequestBody @Valid Domain domain,
+                       @RequestHeader(value = "If-Match", required = false) String ifMatch) {
+        service.update(id, domain, expectedVersion(ifMatch));
         LOGGER.debug("Updated domain with id: {}", id);
     }
 
     @RequestMapping(value = "/{id}", method = RequestMethod.DELETE)
     @ResponseStatus(value = HttpStatus.NO_CONTENT)
-    public void delete(@PathVariable("id") Long id) {
-        this.service.delete(id);
+    public void delete(@PathVariable("id") Long id,
+                       @RequestHeader(value = "If-Match", required = false) String ifMatch) {
+        this.service.delete(id, expectedVersion(ifMatch));
         LOGGER.debug("Deleted domain with id: {}", id);
     }
 
-    @ExceptionHandler(ResourceNotFoundException.class)
+    @ExceptionHandler(BadRequestException.class)
+    @ResponseStatus(value = HttpStatus.BAD_REQUEST, reason = "Bad request")
+    public void badRequest() {
+    }
+
+    @ExceptionHandler({PreconditionFailedException.class, OptimisticLockException.class, OptimisticLockingFailureException.class})
+    @ResponseStatus(value = HttpStatus.PRECONDITION_FAILED, reason = "Domain was modified")
+    public void preconditionFailed() {
+    }
+
+    @ExceptionHandler({ResourceNotFoundException.class, EntityNotFoundException.class})
     @ResponseStatus(value = HttpStatus.NOT_FOUND, reason = "Domain not found")
     public void notFound() {
     }
 
     @RequestMapping(method = RequestMethod.DELETE)
     @ResponseStatus(value = HttpStatus.NO_CONTENT)
-    public void delete() {
+    public void deleteAll() {
         this.service.delete();
         LOGGER.debug("Deleted all domains");
     }
 
+    /**
+     * Strong entity tag of a domain, derived from its version. Documents indexed before versioning count as version 0,
+     * the default of existing rows.
+     */
+    static String etag(Domain domain) {
+        return "\"" + (domain.getVersion() == null ? 0 : domain.getVersion()) + "\"";
+    }
+
+    /**
+     * Weak comparison, as required for If-None-Match.
+     */
+    static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) return false;
+        for (String candidate : Splitter.on(',').trimResults().omitEmptyStrings().split(ifNoneMatch)) {
+            if ("*".equals(candidate) || opaque(candidate).equals(opaque(etag))) return true;
+        }
+        return false;
+    }
+
+    private static String opaque(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+
+    /**
+     * @return the version an If-Match header requires, null if none
+     * @throws PreconditionFailedException if it cannot match any version: weak or malformed tag
+     */
+    static Long expectedVersion(String ifMatch) {
+        if (ifMatch == null || "*".equals(ifMatch.trim())) return null;
+        final String etag = ifMatch.trim();
+        if (etag.length() < 2 || !etag.startsWith("\"") || !etag.endsWith("\"")) {
+            throw new PreconditionFailedException("If-Match requires a single strong entity tag, got " + ifMatch);
+        }
+        try {
+            return Long.valueOf(etag.substring(1, etag.length() - 1));
+        } catch (NumberFormatException e) {
+            throw new PreconditionFailedException("Unknown entity tag " + ifMatch);
+        }
+    }
+
     @RequestMapping(value = "/index/refresh", method = RequestMethod.POST)
     public ResponseEntity<Void> refreshIndex() throws ExecutionException, InterruptedException {
         this.service.refreshIndex("domains");
@@ -0,0 +1,190 @@
+package org.diveintojee.poc.digitaloceancluster.app1.api;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.Lists;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times every {@link DomainsResource} endpoint and every store call: database repositories and JDBC batches on one
+ * side, index repository, searches and bulk index requests on the other. Each request also records how much of its
+ * time went to each store, so that a latency spike can be blamed on one of them. Store calls made outside requests
+ * (write-behind indexing, outbox relay) are timed but not attributed. Commits are not store calls: a transaction's
+ * deferred flush is part of the endpoint time only.
+ * <p/>
+ * Published as {@code timer.<name>.*} (count, mean and percentiles in ms), {@code histogram.api.<endpoint>.db|index.*}
+ * (time per request in each store, in ms) and {@code counter.<name>.errors}, where names are {@code api.<endpoint>},
+ * {@code db.<repository>.<method>} or {@code index.<repository>.<method>}. Percentiles are biased towards the last
+ * five minutes.
+ *
+ * @author louis.gueye@gmail.com
+ */
+@Aspect
+@Component
+public class LatencyMetrics implements PublicMetrics {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LatencyMetrics.class);
+
+    private static final String API = "api.";
+    private static final String DB = "db.";
+    private static final String INDEX = "index.";
+    private static final String ERRORS = ".errors";
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final MetricFilter OWN_METRICS = new MetricFilter() {
+        @Override
+        public boolean matches(String name, com.codahale.metrics.Metric metric) {
+            return name.startsWith(API) || name.startsWith(DB) || name.startsWith(INDEX);
+        }
+    };
+
+    /**
+     * Shared with Dropwizard reporters when the application declares a registry.
+     */
+    @Autowired(required = false)
+    private MetricRegistry registry;
+
+    /**
+     * Store time of the request being served by the current thread, null outside requests.
+     */
+    private final ThreadLocal<StoreTime> storeTime = new ThreadLocal<>();
+
+    private static class StoreTime {
+        private long db;
+        private long index;
+        // Nested store calls are counted once
+        private int depth;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (registry == null) {
+            registry = new MetricRegistry();
+        }
+    }
+
+    @Around("execution(public * org.diveintojee.poc.digitaloceancluster.app1.api.DomainsResource.*(..))"
+            + " && @annotation(org.springframework.web.bind.annotation.RequestMapping)")
+    public Object timeEndpoint(ProceedingJoinPoint joinPoint) throws Throwable {
+        final String name = API + joinPoint.getSignature().getName();
+        final StoreTime request = new StoreTime();
+        storeTime.set(request);
+        final long start = System.nanoTime();
+        try {
+            return joinPoint.proceed();
+        } catch (Throwable e) {
+            registry.counter(name + ERRORS).inc();
+            throw e;
+        } finally {
+            final long elapsed = System.nanoTime() - start;
+            storeTime.remove();
+            registry.timer(name).update(elapsed, TimeUnit.NANOSECONDS);
+            registry.histogram(name + ".db").update(request.db);
+            registry.histogram(name + ".index").update(request.index);
+            LOGGER.debug("{} took {} ms, {} ms in db, {} ms in index", name, millis(elapsed), millis(request.db), millis(request.index));
+        }
+    }
+
+    @Around("execution(public * org.diveintojee.poc.digitaloceancluster.app1.persistence.data.DatabaseRepository+.*(..))")
+    public Object timeDatabaseRepository(ProceedingJoinPoint joinPoint) throws Throwable {
+        return timeStore(joinPoint, DB, "domains.");
+    }
+
+    @Around("execution(public * org.diveintojee.poc.digitaloceancluster.app1.persistence.data.OutboxRepository+.*(..))")
+    public Object timeOutboxRepository(ProceedingJoinPoint joinPoint) throws Throwable {
+        return timeStore(joinPoint, DB, "outbox.");
+    }
+
+    @Around("execution(public * org.diveintojee.poc.digitaloceancluster.app1.persistence.data.DomainBatchRepository.*(..))")
+    public Object timeBatchRepository(ProceedingJoinPoint joinPoint) throws Throwable {
+        return timeStore(joinPoint, DB, "batch.");
+    }
+
+    @Around("execution(public * org.diveintojee.poc.digitaloceancluster.app1.persistence.index.IndexRepository+.*(..))")
+    public Object timeIndexRepository(ProceedingJoinPoint joinPoint) throws Throwable {
+        return timeStore(joinPoint, INDEX, "domains.");
+    }
+
+    @Around("execution(public * org.diveintojee.poc.digitaloceancluster.app1.persistence.index.DomainSearcher.*(..))")
+    public Object timeSearcher(ProceedingJoinPoint joinPoint) throws Throwable {
+        return timeStore(joinPoint, INDEX, "searcher.");
+    }
+
+    @Around("execution(public * org.diveintojee.poc.digitaloceancluster.app1.persistence.index.BulkIndexWriter.write(..))")
+    public Object timeBulkIndexWriter(ProceedingJoinPoint joinPoint) throws Throwable {
+        return timeStore(joinPoint, INDEX, "bulk.");
+    }
+
+    private Object timeStore(ProceedingJoinPoint joinPoint, String store, String repository) throws Throwable {
+        final String name = store + repository + joinPoint.getSignature().getName();
+        final StoreTime request = storeTime.get();
+        if (request != null) {
+            request.depth++;
+        }
+        final long start = System.nanoTime();
+        try {
+            return joinPoint.proceed();
+        } catch (Throwable e) {
+            registry.counter(name + ERRORS).inc();
+            throw e;
+        } finally {
+            final long elapsed = System.nanoTime() - start;
+            registry.timer(name).update(elapsed, TimeUnit.NANOSECONDS);
+            if (request != null && --request.depth == 0) {
+                if (DB.equals(store)) {
+                    request.db += elapsed;
+                } else {
+                    request.index += elapsed;
+                }
+            }
+        }
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        final List<Metric<?>> metrics = Lists.newArrayList();
+        for (Map.Entry<String, Timer> timer : registry.getTimers(OWN_METRICS).entrySet()) {
+            final String name = "timer." + timer.getKey();
+            metrics.add(new Metric<>(name + ".count", timer.getValue().getCount()));
+            addSnapshot(metrics, name, timer.getValue().getSnapshot());
+        }
+        for (Map.Entry<String, Histogram> histogram : registry.getHistograms(OWN_METRICS).entrySet()) {
+            addSnapshot(metrics, "histogram." + histogram.getKey(), histogram.getValue().getSnapshot());
+        }
+        for (Map.Entry<String, Counter> counter : registry.getCounters(OWN_METRICS).entrySet()) {
+            metrics.add(new Metric<>("counter." + counter.getKey(), counter.getValue().getCount()));
+        }
+        return metrics;
+    }
+
+    private static void addSnapshot(List<Metric<?>> metrics, String name, Snapshot snapshot) {
+        metrics.add(new Metric<>(name + ".mean", millis(snapshot.getMean())));
+        metrics.add(new Metric<>(name + ".p50", millis(snapshot.getMedian())));
+        metrics.add(new Metric<>(name + ".p95", millis(snapshot.get95thPercentile())));
+        metrics.add(new Metric<>(name + ".p99", millis(snapshot.get99thPercentile())));
+        metrics.add(new Metric<>(name + ".p999", millis(snapshot.get999thPercentile())));
+        metrics.add(new Metric<>(name + ".max", millis(snapshot.getMax())));
+    }
+
+    private static double millis(double nanos) {
+        return nanos / NANOS_PER_MILLI;
+    }
+}
@@ -0,0 +1,7 @@
+package org.diveintojee.poc.digitaloceancluster.app1.api;
+
+public class PreconditionFailedException extends RuntimeException {
+    public PreconditionFailedException(String message) {
+        super(message);
+    }
+}
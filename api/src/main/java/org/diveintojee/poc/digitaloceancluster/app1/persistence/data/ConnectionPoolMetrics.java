@@ -0,0 +1,44 @@
+package org.diveintojee.poc.digitaloceancluster.app1.persistence.data;
+
+import org.apache.tomcat.jdbc.pool.DataSourceProxy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * Publishes the state of the connection pool as {@code datasource.pool.*} metrics: connections open, borrowed and idle,
+ * the pool bounds, requests waiting for a connection and the share of the pool in use. Published for any Tomcat JDBC
+ * pool: the one {@link DataSourceConfiguration} builds, or the one Boot builds over the embedded database.
+ *
+ * @author louis.gueye@gmail.com
+ */
+@Component
+public class ConnectionPoolMetrics implements PublicMetrics {
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        if (!(dataSource instanceof DataSourceProxy)) {
+            return Collections.emptyList();
+        }
+        final DataSourceProxy pool = (DataSourceProxy) dataSource;
+        final int active = pool.getActive();
+        final int maxActive = pool.getMaxActive();
+        return Arrays.<Metric<?>>asList(
+                new Metric<>("datasource.pool.size", pool.getSize()),
+                new Metric<>("datasource.pool.active", active),
+                new Metric<>("datasource.pool.idle", pool.getIdle()),
+                new Metric<>("datasource.pool.min-idle", pool.getMinIdle()),
+                new Metric<>("datasource.pool.max-active", maxActive),
+                new Metric<>("datasource.pool.waiting", pool.getWaitCount()),
+                new Metric<>("datasource.pool.usage", maxActive > 0 ? (double) active / maxActive : 0));
+    }
+}
@@ -0,0 +1,99 @@
+package org.diveintojee.poc.digitaloceancluster.app1.persistence.data;
+
+import com.google.common.base.Strings;
+import org.apache.tomcat.jdbc.pool.DataSource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * The api connection pool, replacing the one Boot builds with its defaults. Connections are opened up front and kept
+ * between {@code app1.datasource.pool.min-idle} and {@code max-active}, so that a burst of requests does not pay for
+ * connection setup; once the pool is exhausted, requests wait {@code max-wait-millis} at most and fail. Connections are
+ * validated when borrowed, at most once per {@code validation-interval-millis}. Connections held longer than
+ * {@code suspect-timeout-seconds} are logged as suspected leaks, with the stack trace that borrowed them, but are
+ * not taken back.
+ * <p/>
+ * Only applies when {@code spring.datasource.url} is set: without it Boot pools an embedded database with its own
+ * defaults, as in tests and benchmarks.
+ *
+ * @author louis.gueye@gmail.com
+ */
+@Configuration
+@ConditionalOnExpression("'${spring.datasource.url:}' != ''")
+public class DataSourceConfiguration {
+
+    /**
+     * Connector/J settings, applied to MySQL URLs only: server-side prepared statements cached per connection, and
+     * JDBC batches rewritten as multi-row inserts.
+     */
+    private static final String MYSQL_CONNECTION_PROPERTIES = "useServerPrepStmts=true;cachePrepStmts=true;"
+            + "prepStmtCacheSize=250;prepStmtCacheSqlLimit=2048;rewriteBatchedStatements=true";
+
+    @Value("${spring.datasource.url}")
+    private String url;
+
+    @Value("${spring.datasource.driverClassName:}")
+    private String driverClassName;
+
+    @Value("${spring.datasource.username:}")
+    private String username;
+
+    @Value("${spring.datasource.password:}")
+    private String password;
+
+    @Value("${app1.datasource.pool.min-idle:10}")
+    private int minIdle;
+
+    @Value("${app1.datasource.pool.max-active:50}")
+    private int maxActive;
+
+    @Value("${app1.datasource.pool.max-wait-millis:5000}")
+    private int maxWaitMillis;
+
+    @Value("${app1.datasource.pool.validation-query:SELECT 1}")
+    private String validationQuery;
+
+    @Value("${app1.datasource.pool.validation-interval-millis:30000}")
+    private long validationIntervalMillis;
+
+    @Value("${app1.datasource.pool.suspect-timeout-seconds:60}")
+    private int suspectTimeoutSeconds;
+
+    /**
+     * Overrides the MySQL defaults, e.g. to tune the statement cache size.
+     */
+    @Value("${app1.datasource.pool.connection-properties:}")
+    private String connectionProperties;
+
+    @Bean(destroyMethod = "close")
+    public DataSource dataSource() {
+        final DataSource dataSource = new DataSource();
+        dataSource.setUrl(url);
+        if (!Strings.isNullOrEmpty(driverClassName)) {
+            dataSource.setDriverClassName(driverClassName);
+        }
+        dataSource.setUsername(username);
+        dataSource.setPassword(password);
+        if (!Strings.isNullOrEmpty(connectionProperties)) {
+            dataSource.setConnectionProperties(connectionProperties);
+        } else if (url.startsWith("jdbc:mysql:")) {
+            dataSource.setConnectionProperties(MYSQL_CONNECTION_PROPERTIES);
+        }
+        dataSource.setInitialSize(minIdle);
+        dataSource.setMinIdle(minIdle);
+        dataSource.setMaxIdle(maxActive);
+        dataSource.setMaxActive(maxActive);
+        dataSource.setMaxWait(maxWaitMillis);
+        dataSource.setTestOnBorrow(true);
+        dataSource.setValidationQuery(validationQuery);
+        dataSource.setValidationInterval(validationIntervalMillis);
+        dataSource.setLogAbandoned(true);
+        dataSource.setSuspectTimeout(suspectTimeoutSeconds);
+        // The leak timer restarts on every statement: only connections held without being used are suspected
+        dataSource.setJdbcInterceptors("ConnectionState;StatementFinalizer;ResetAbandonedTimer");
+        dataSource.setJmxEnabled(true);
+        return dataSource;
+    }
+}
@@ -0,0 +1,288 @@
+package org.diveintojee.poc.digitaloceancluster.app1.persistence.data;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.diveintojee.poc.digitaloceancluster.app1.domain.Domain;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes domains and their outbox events with JDBC batches, one round trip per batch instead of one per row. Identifiers
+ * are allocated by the database (auto increment) and read back from the generated keys. Add
+ * {@code rewriteBatchedStatements=true} to the MySQL JDBC URL for the driver to send each batch as a multi-row insert.
+ * Other drivers, H2 among them, may return the key of the last row of a batch only: inserts are then sent row by row.
+ * <p/>
+ * Methods join the caller's transaction.
+ *
+ * @author louis.gueye@gmail.com
+ */
+@Repository
+public class DomainBatchRepository {
+
+    private static final String INSERT_DOMAIN = "INSERT INTO domains (title, description) VALUES (?, ?)";
+    // A null expected version matches any version
+    private static final String UPDATE_DOMAIN = "UPDATE domains SET title = ?, description = ?, version = version + 1 "
+            + "WHERE id = ? AND version = COALESCE(?, version)";
+    private static final String SELECT_VERSION = "SELECT version FROM domains WHERE id = ?";
+    private static final String SELECT_VERSIONS = "SELECT id, version FROM domains WHERE id IN (%s)";
+    private static final String DELETE_DOMAIN = "DELETE FROM domains WHERE id = ?";
+    private static final String INSERT_OUTBOX = "INSERT INTO domain_outbox (domain_id, operation, created_at) VALUES (?, ?, ?)";
+
+    /**
+     * Databases whose driver returns one generated key per row of a batched insert.
+     */
+    private static final Set<String> BATCHED_KEYS_DATABASES = ImmutableSet.of("MySQL");
+
+    /**
+     * Databases on which {@link #truncate()} knows how to lock the tables and restore the auto increment.
+     */
+    private static final Set<String> TRUNCATE_DATABASES = ImmutableSet.of("MySQL");
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private volatile String databaseProductName;
+
+    /**
+     * Inserts the domains and sets their generated identifiers and initial version.
+     */
+    public void insert(final List<Domain> domains) {
+        final List<Long> ids = insertReturningKeys(INSERT_DOMAIN, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement statement, int i) throws SQLException {
+                statement.setString(1, domains.get(i).getTitle());
+                statement.setString(2, domains.get(i).getDescription());
+            }
+
+            @Override
+            public int getBatchSize() {
+                return domains.size();
+            }
+        });
+        for (int i = 0; i < domains.size(); i++) {
+            domains.get(i).setId(ids.get(i));
+            domains.get(i).setVersion(0L);
+        }
+    }
+
+    /**
+     * Updates the domains whose version is the one they carry, or whatever their version when they carry none (last
+     * writer wins), and sets their current version: the new one when updated, the one that prevented the update
+     * otherwise, null when the domain does not exist.
+     *
+     * @return for each domain, whether it was updated
+     */
+    public boolean[] update(final List<Domain> domains) {
+        final int[] counts = jdbcTemplate.batchUpdate(UPDATE_DOMAIN, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement statement, int i) throws SQLException {
+                statement.setString(1, domains.get(i).getTitle());
+                statement.setString(2, domains.get(i).getDescription());
+                statement.setLong(3, domains.get(i).getId());
+                if (domains.get(i).getVersion() == null) {
+                    statement.setNull(4, Types.BIGINT);
+                } else {
+                    statement.setLong(4, domains.get(i).getVersion());
+                }
+            }
+
+            @Override
+            public int getBatchSize() {
+                return domains.size();
+            }
+        });
+        final List<Long> ids = Lists.newArrayListWithCapacity(domains.size());
+        for (Domain domain : domains) {
+            ids.add(domain.getId());
+        }
+        final Map<Long, Long> versions = Maps.newHashMap();
+        jdbcTemplate.query(String.format(SELECT_VERSIONS, Joiner.on(", ").join(Collections.nCopies(ids.size(), "?"))), ids.toArray(),
+                new RowCallbackHandler() {
+                    @Override
+                    public void processRow(ResultSet resultSet) throws SQLException {
+                        versions.put(resultSet.getLong(1), resultSet.getLong(2));
+                    }
+                });
+        final boolean[] updated = new boolean[domains.size()];
+        for (int i = 0; i < domains.size(); i++) {
+            final Domain domain = domains.get(i);
+            final Long version = versions.get(domain.getId());
+            if (counts[i] == Statement.SUCCESS_NO_INFO) {
+                // The driver did not report the count: an expected version was matched if it was incremented
+                updated[i] = version != null && (domain.getVersion() == null || version == domain.getVersion() + 1);
+            } else {
+                updated[i] = counts[i] > 0;
+            }
+            domain.setVersion(version);
+        }
+        return updated;
+    }
+
+    /**
+     * @return the current version of the domain, null if it does not exist
+     */
+    public Long version(Long id) {
+        final List<Long> versions = jdbcTemplate.queryForList(SELECT_VERSION, Long.class, id);
+        return versions.isEmpty() ? null : versions.get(0);
+    }
+
+    /**
+     * @return for each identifier, whether the domain existed
+     */
+    public boolean[] delete(final List<Long> ids) {
+        return found(jdbcTemplate.batchUpdate(DELETE_DOMAIN, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement statement, int i) throws SQLException {
+                statement.setLong(1, ids.get(i));
+            }
+
+            @Override
+            public int getBatchSize() {
+                return ids.size();
+            }
+        }));
+    }
+
+    /**
+     * Empties the domains and outbox tables in constant time, on MySQL only. Truncating resets the auto increment,
+     * which is restored past the highest purged id: reusing ids would revive cached copies and entity tags of purged
+     * domains. Both tables are locked meanwhile, so that no writer allocates an id between reading the highest one and
+     * restoring the counter. Not transactional, MySQL commits a truncation implicitly.
+     *
+     * @return false, leaving the tables untouched, on other databases: the caller deletes the rows instead
+     */
+    public boolean truncate() {
+        return jdbcTemplate.execute(new ConnectionCallback<Boolean>() {
+            @Override
+            public Boolean doInConnection(Connection connection) throws SQLException {
+                if (!TRUNCATE_DATABASES.contains(databaseProductName(connection))) {
+                    return false;
+                }
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("LOCK TABLES domains WRITE, domain_outbox WRITE");
+                    try {
+                        Long maxId = null;
+                        try (ResultSet max = statement.executeQuery("SELECT MAX(id) FROM domains")) {
+                            if (max.next()) {
+                                final long id = max.getLong(1);
+                                maxId = max.wasNull() ? null : id;
+                            }
+                        }
+                        statement.execute("TRUNCATE TABLE domain_outbox");
+                        statement.execute("TRUNCATE TABLE domains");
+                        if (maxId != null) {
+                            statement.execute("ALTER TABLE domains AUTO_INCREMENT = " + (maxId + 1));
+                        }
+                    } finally {
+                        statement.execute("UNLOCK TABLES");
+                    }
+                }
+                return true;
+            }
+        });
+    }
+
+    /**
+     * @return the outbox event ids, in order
+     */
+    public List<Long> record(final List<Long> domainIds, final List<OutboxEvent.Operation> operations) {
+        final Timestamp now = new Timestamp(System.currentTimeMillis());
+        return insertReturningKeys(INSERT_OUTBOX, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement statement, int i) throws SQLException {
+                statement.setLong(1, domainIds.get(i));
+                statement.setString(2, operations.get(i).name());
+                statement.setTimestamp(3, now);
+            }
+
+            @Override
+            public int getBatchSize() {
+                return domainIds.size();
+            }
+        });
+    }
+
+    private List<Long> insertReturningKeys(final String sql, final BatchPreparedStatementSetter setter) {
+        if (setter.getBatchSize() == 0) return Lists.newArrayList();
+        return jdbcTemplate.execute(new ConnectionCallback<List<Long>>() {
+            @Override
+            public List<Long> doInConnection(Connection connection) throws SQLException {
+                if (!supportsBatchedKeys(connection)) {
+                    return insertRowByRow(connection, sql, setter);
+                }
+                try (PreparedStatement statement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                    for (int i = 0; i < setter.getBatchSize(); i++) {
+                        setter.setValues(statement, i);
+                        statement.addBatch();
+                    }
+                    statement.executeBatch();
+                    final List<Long> keys = Lists.newArrayListWithCapacity(setter.getBatchSize());
+                    try (ResultSet generated = statement.getGeneratedKeys()) {
+                        while (generated.next()) {
+                            keys.add(generated.getLong(1));
+                        }
+                    }
+                    if (keys.size() != setter.getBatchSize()) {
+                        throw new IllegalStateException("Expected " + setter.getBatchSize() + " generated keys, got " + keys.size());
+                    }
+                    return keys;
+                }
+            }
+        });
+    }
+
+    private boolean supportsBatchedKeys(Connection connection) throws SQLException {
+        return BATCHED_KEYS_DATABASES.contains(databaseProductName(connection));
+    }
+
+    private String databaseProductName(Connection connection) throws SQLException {
+        if (databaseProductName == null) {
+            databaseProductName = connection.getMetaData().getDatabaseProductName();
+        }
+        return databaseProductName;
+    }
+
+    private static List<Long> insertRowByRow(Connection connection, String sql, BatchPreparedStatementSetter setter) throws SQLException {
+        final List<Long> keys = Lists.newArrayListWithCapacity(setter.getBatchSize());
+        try (PreparedStatement statement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+            for (int i = 0; i < setter.getBatchSize(); i++) {
+                setter.setValues(statement, i);
+                statement.executeUpdate();
+                try (ResultSet generated = statement.getGeneratedKeys()) {
+                    if (!generated.next()) {
+                        throw new IllegalStateException("No generated key for row " + i);
+                    }
+                    keys.add(generated.getLong(1));
+                }
+            }
+        }
+        return keys;
+    }
+
+    private boolean[] found(int[] counts) {
+        final boolean[] found = new boolean[counts.length];
+        for (int i = 0; i < counts.length; i++) {
+            // The driver may not report counts of batched statements
+            found[i] = counts[i] > 0 || counts[i] == Statement.SUCCESS_NO_INFO;
+        }
+        return found;
+    }
+}
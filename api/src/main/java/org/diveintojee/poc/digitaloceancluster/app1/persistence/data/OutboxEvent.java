@@ -0,0 +1,71 @@
+package org.diveintojee.poc.digitaloceancluster.app1.persistence.data;
+
+import com.google.common.base.Objects;
+
+import javax.persistence.*;
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * Change to a domain that still has to reach the index. Written in the same transaction as the domain row so that
+ * a committed change is never lost, deleted once applied to the index.
+ *
+ * @author louis.gueye@gmail.com
+ */
+@Entity
+@Table(name = "domain_outbox")
+public class OutboxEvent implements Serializable {
+
+    public enum Operation {
+        INDEX, DELETE
+    }
+
+    @Id
+    @GeneratedValue
+    private Long id;
+
+    @Column(name = "domain_id", nullable = false)
+    private Long domainId;
+
+    @Column(nullable = false)
+    @Enumerated(EnumType.STRING)
+    private Operation operation;
+
+    @Column(name = "created_at", nullable = false)
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date createdAt = new Date();
+
+    protected OutboxEvent() {
+    }
+
+    public OutboxEvent(Long domainId, Operation operation) {
+        this.domainId = domainId;
+        this.operation = operation;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public Long getDomainId() {
+        return domainId;
+    }
+
+    public Operation getOperation() {
+        return operation;
+    }
+
+    public Date getCreatedAt() {
+        return createdAt;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("id", id)
+                .add("domainId", domainId)
+                .add("operation", operation)
+                .add("createdAt", createdAt)
+                .toString();
+    }
+}
@@ -0,0 +1,24 @@
+package org.diveintojee.poc.digitaloceancluster.app1.persistence.data;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+
+import javax.transaction.Transactional;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * @author louis.gueye@gmail.com
+ */
+@Transactional
+public interface OutboxRepository extends CrudRepository<OutboxEvent, Long> {
+
+    List<OutboxEvent> findByCreatedAtBeforeOrderByIdAsc(Date createdAt, Pageable pageable);
+
+    @Modifying
+    @Query("delete from OutboxEvent e where e.id in ?1")
+    int deleteByIdIn(Collection<Long> ids);
+}
@@ -0,0 +1,106 @@
+package org.diveintojee.poc.digitaloceancluster.app1.persistence.index;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.diveintojee.poc.digitaloceancluster.app1.domain.Domain;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.client.Client;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.elasticsearch.core.ElasticsearchTemplate;
+import org.springframework.data.elasticsearch.core.mapping.ElasticsearchPersistentEntity;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a batch of {@link IndexOperation}s to the domains index in a single bulk request, then mirrors the ones that
+ * succeeded to the index being built by a dual-write migration, if any. Applied domains are evicted from the
+ * {@link DomainCache} and make cached search results stale.
+ *
+ * @author louis.gueye@gmail.com
+ */
+@Component
+public class BulkIndexWriter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BulkIndexWriter.class);
+
+    @Autowired
+    private Client indexClient;
+
+    @Autowired
+    private ElasticsearchTemplate elasticsearchTemplate;
+
+    @Autowired
+    private IndexMirror indexMirror;
+
+    @Autowired
+    private DomainCache domainCache;
+
+    @Autowired
+    private SearchCache searchCache;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * @param operations at most one operation per domain
+     * @return the operations that could not be applied
+     */
+    public List<IndexOperation> write(Collection<IndexOperation> operations) {
+        if (operations.isEmpty()) return Lists.newArrayList();
+        final ElasticsearchPersistentEntity<?> entity = elasticsearchTemplate.getPersistentEntityFor(Domain.class);
+        final List<IndexOperation> sent = Lists.newArrayList();
+        final BulkRequestBuilder bulk = indexClient.prepareBulk();
+        for (IndexOperation operation : operations) {
+            final String id = String.valueOf(operation.getId());
+            if (operation.getType() == IndexOperation.Type.DELETE) {
+                bulk.add(indexClient.prepareDelete(entity.getIndexName(), entity.getIndexType(), id));
+            } else {
+                try {
+                    bulk.add(indexClient.prepareIndex(entity.getIndexName(), entity.getIndexType(), id)
+                            .setSource(objectMapper.writeValueAsString(operation.getDomain())));
+                } catch (JsonProcessingException e) {
+                    LOGGER.error("Failed to serialize domain {}, it will not be indexed", id, e);
+                    continue;
+                }
+            }
+            sent.add(operation);
+        }
+        if (sent.isEmpty()) return Lists.newArrayList();
+
+        final BulkResponse response = bulk.execute().actionGet();
+        final List<IndexOperation> failed = Lists.newArrayList();
+        final List<IndexOperation> succeeded = Lists.newArrayList();
+        final Map<Long, Long> versions = Maps.newHashMap();
+        for (BulkItemResponse item : response.getItems()) {
+            final IndexOperation operation = sent.get(item.getItemId());
+            if (item.isFailed()) {
+                LOGGER.warn("Failed to apply {}: {}", operation, item.getFailureMessage());
+                failed.add(operation);
+            } else {
+                succeeded.add(operation);
+                versions.put(operation.getId(), item.getVersion());
+            }
+        }
+        LOGGER.debug("Applied {} index operation(s) in {} ms, {} failed", succeeded.size(), response.getTookInMillis(), failed.size());
+        for (IndexOperation operation : succeeded) {
+            domainCache.evict(operation.getId());
+        }
+        if (!succeeded.isEmpty()) {
+            searchCache.invalidate();
+        }
+        try {
+            indexMirror.mirror(succeeded, versions);
+        } catch (RuntimeException e) {
+            LOGGER.warn("Failed to mirror {} index operation(s)", succeeded.size(), e);
+        }
+        return failed;
+    }
+}
@@ -0,0 +1,186 @@
+package org.diveintojee.poc.digitaloceancluster.app1.persistence.index;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.diveintojee.poc.digitaloceancluster.app1.domain.Domain;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read-through cache in front of {@link IndexRepository#findOne}, bounded in size (LRU eviction) and in time. Domain
+ * writes invalidate their entry synchronously, and again once the index applied them: a read between the two could
+ * otherwise cache the previous version. Invalidations go through the {@link InvalidationChannel} so that every node
+ * drops its copy. Hits, misses and evictions are published as {@code cache.domains.*} metrics.
+ * <p/>
+ * Since every domain write, whichever node made it, ends up invalidating an entry here, the invalidation count doubles
+ * as a {@link #changeMarker() change marker} of the whole collection.
+ *
+ * @author louis.gueye@gmail.com
+ */
+@Component
+public class DomainCache implements InvalidationChannel.Listener, PublicMetrics {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DomainCache.class);
+
+    @Value("${app1.cache.domains.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app1.cache.domains.maximum-size:10000}")
+    private long maximumSize;
+
+    @Value("${app1.cache.domains.expire-after-write-millis:60000}")
+    private long expireAfterWriteMillis;
+
+    @Value("${app1.index.refresh-interval-millis:1000}")
+    private long refreshIntervalMillis;
+
+    @Autowired
+    private IndexRepository indexRepository;
+
+    @Autowired(required = false)
+    private InvalidationChannel channel;
+
+    private Cache<Long, Domain> cache;
+
+    /**
+     * Bumped by every invalidation: a load that raced with one must not be cached.
+     */
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * Tells the invalidation counts of this instance from those of a previous run, or of another node.
+     */
+    private final String epoch = UUID.randomUUID().toString();
+
+    private volatile long lastInvalidationMillis;
+
+    @PostConstruct
+    public void init() {
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWriteMillis, TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+        if (channel == null) {
+            channel = new InMemoryInvalidationChannel();
+        }
+        channel.subscribe(this);
+        LOGGER.info("Domain cache {} (maximum size {}, expire after {} ms, invalidation through {})",
+                enabled ? "enabled" : "disabled", maximumSize, expireAfterWriteMillis, channel.getClass().getSimpleName());
+    }
+
+    /**
+     * @return the domain, null if not indexed
+     */
+    public Domain get(Long id) {
+        if (!enabled) return indexRepository.findOne(id);
+        final Domain cached = cache.getIfPresent(id);
+        if (cached != null) return cached;
+        final long before = invalidations.get();
+        final Domain loaded = indexRepository.findOne(id);
+        if (loaded != null && invalidations.get() == before) {
+            cache.put(id, loaded);
+        }
+        return loaded;
+    }
+
+    /**
+     * Serves cached domains, then fetches the others with a single multi-get.
+     *
+     * @return found domains by id
+     */
+    public Map<Long, Domain> getAll(Collection<Long> ids) {
+        final Map<Long, Domain> found = Maps.newHashMap();
+        final Set<Long> missing = Sets.newLinkedHashSet();
+        for (Long id : ids) {
+            final Domain cached = enabled ? cache.getIfPresent(id) : null;
+            if (cached != null) {
+                found.put(id, cached);
+            } else {
+                missing.add(id);
+            }
+        }
+        if (missing.isEmpty()) return found;
+        final long before = invalidations.get();
+        for (Domain loaded : indexRepository.findAll(missing)) {
+            // Missing documents come back as null
+            if (loaded == null) continue;
+            found.put(loaded.getId(), loaded);
+            if (enabled && invalidations.get() == before) {
+                cache.put(loaded.getId(), loaded);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Drops the entry on every node.
+     */
+    public void evict(Long id) {
+        invalidate(id);
+        channel.publish(id);
+    }
+
+    /**
+     * Drops every entry on every node.
+     */
+    public void evictAll() {
+        invalidateAll();
+        channel.publishAll();
+    }
+
+    /**
+     * Changes whenever a domain is written, through any node, and when this node restarts. Nodes have distinct markers:
+     * a client switching nodes refetches, it is never told that an outdated copy is current.
+     *
+     * @return null until the last write has had time to reach searches: the collection read now may not include it
+     */
+    public String changeMarker() {
+        // Read the count first: a write landing in between changes the next marker
+        final long count = invalidations.get();
+        if (System.currentTimeMillis() - lastInvalidationMillis < refreshIntervalMillis) return null;
+        return epoch + "-" + count;
+    }
+
+    @Override
+    public void invalidate(Long id) {
+        lastInvalidationMillis = System.currentTimeMillis();
+        invalidations.incrementAndGet();
+        cache.invalidate(id);
+    }
+
+    @Override
+    public void invalidateAll() {
+        lastInvalidationMillis = System.currentTimeMillis();
+        invalidations.incrementAndGet();
+        cache.invalidateAll();
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        final CacheStats stats = cache.stats();
+        return Arrays.<Metric<?>>asList(
+                new Metric<>("cache.domains.size", cache.size()),
+                new Metric<>("cache.domains.hits", stats.hitCount()),
+                new Metric<>("cache.domains.misses", stats.missCount()),
+                new Metric<>("cache.domains.evictions", stats.evictionCount()),
+                new Metric<>("cache.domains.hit-ratio", stats.hitRate()));
+    }
+}
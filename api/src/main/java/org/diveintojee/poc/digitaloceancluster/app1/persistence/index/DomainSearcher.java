@@ -0,0 +1,118 @@
+package org.diveintojee.poc.digitaloceancluster.app1.persistence.index;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import org.diveintojee.poc.digitaloceancluster.app1.domain.Domain;
+import org.diveintojee.poc.digitaloceancluster.app1.domain.DomainSearchResult;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.index.query.MatchQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.sort.SortBuilders;
+import org.elasticsearch.search.sort.SortOrder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.elasticsearch.core.ElasticsearchTemplate;
+import org.springframework.data.elasticsearch.core.mapping.ElasticsearchPersistentEntity;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Runs paged domain searches. Only the requested page is fetched, and only the requested fields of its hits
+ * ({@code _source} filtering), so the payload and the fetch phase cost are bounded by the page, not by the match count.
+ *
+ * @author louis.gueye@gmail.com
+ */
+@Component
+public class DomainSearcher {
+
+    public static final String SCORE = "_score";
+
+    /**
+     * Bounds of the substring n-grams. Keep in sync with the index-upgrader settings of domains v2 and v3.
+     */
+    static final int SUBSTRING_MIN_GRAM = 2;
+    static final int SUBSTRING_MAX_GRAM = 20;
+
+    /**
+     * Splits a query the way the standard tokenizer of the substring search analyzer roughly does.
+     */
+    private static final Splitter TERMS = Splitter.on(CharMatcher.JAVA_LETTER_OR_DIGIT.negate()).omitEmptyStrings();
+
+    /**
+     * Disable to fall back to wildcard queries while the domains alias still points to a v1 index.
+     */
+    @Value("${app1.search.substring-fields:true}")
+    private boolean substringSearch;
+
+    @Autowired
+    private Client indexClient;
+
+    @Autowired
+    private ElasticsearchTemplate elasticsearchTemplate;
+
+    private final ObjectMapper objectMapper = new ObjectMapper().disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+    /**
+     * @param sort   sort fields in order, relevance ({@value #SCORE}) when empty
+     * @param fields fields to return, all when null
+     */
+    public DomainSearchResult search(String query, int from, int size, Map<String, SortOrder> sort, String[] fields) {
+        final ElasticsearchPersistentEntity<?> entity = elasticsearchTemplate.getPersistentEntityFor(Domain.class);
+        final SearchRequestBuilder search = indexClient.prepareSearch(entity.getIndexName())
+                .setTypes(entity.getIndexType())
+                .setQuery(query(query))
+                .setFrom(from)
+                .setSize(size);
+        if (fields != null) {
+            search.setFetchSource(fields, null);
+        }
+        for (Map.Entry<String, SortOrder> field : sort.entrySet()) {
+            search.addSort(SCORE.equals(field.getKey())
+                    ? SortBuilders.scoreSort().order(field.getValue())
+                    : SortBuilders.fieldSort(field.getKey()).order(field.getValue()).ignoreUnmapped(true));
+        }
+        final SearchResponse response = search.execute().actionGet();
+        final List<Domain> items = Lists.newArrayListWithCapacity(response.getHits().getHits().length);
+        for (SearchHit hit : response.getHits().getHits()) {
+            final Domain domain = hit.getSource() == null ? new Domain() : objectMapper.convertValue(hit.getSource(), Domain.class);
+            domain.setId(Long.valueOf(hit.getId()));
+            items.add(domain);
+        }
+        return new DomainSearchResult(response.getHits().getTotalHits(), response.getTookInMillis(), from, items);
+    }
+
+    /**
+     * Terms shorter or longer than the n-grams match no substring field: those queries run the wildcard fallback, which
+     * keeps the contains semantics at a higher cost.
+     */
+    private QueryBuilder query(String query) {
+        if (substringSearch && fitsSubstringFields(query)) {
+            return QueryBuilders.multiMatchQuery(query, "title.substring", "description.substring")
+                    .operator(MatchQueryBuilder.Operator.AND);
+        }
+        // Wildcards are not analyzed, indexed terms are lowercase
+        final String wildcard = "*" + query.toLowerCase(Locale.ROOT) + "*";
+        return QueryBuilders.boolQuery()
+                .should(QueryBuilders.wildcardQuery("title", wildcard))
+                .should(QueryBuilders.wildcardQuery("description", wildcard));
+    }
+
+    static boolean fitsSubstringFields(String query) {
+        for (String term : TERMS.split(query)) {
+            if (term.length() < SUBSTRING_MIN_GRAM || term.length() > SUBSTRING_MAX_GRAM) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
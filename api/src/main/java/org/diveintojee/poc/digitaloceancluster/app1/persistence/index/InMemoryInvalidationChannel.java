@@ -0,0 +1,33 @@
+package org.diveintojee.poc.digitaloceancluster.app1.persistence.index;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Delivers invalidations synchronously to the listeners of this JVM only: enough for a single node and for tests.
+ *
+ * @author louis.gueye@gmail.com
+ */
+public class InMemoryInvalidationChannel implements InvalidationChannel {
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void subscribe(Listener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void publish(Long id) {
+        for (Listener listener : listeners) {
+            listener.invalidate(id);
+        }
+    }
+
+    @Override
+    public void publishAll() {
+        for (Listener listener : listeners) {
+            listener.invalidateAll();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package org.diveintojee.poc.digitaloceancluster.app1.persistence.index;
+
+import org.diveintojee.poc.digitaloceancluster.app1.domain.Domain;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.MappingMetaData;
+import org.elasticsearch.common.collect.ImmutableOpenMap;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.elasticsearch.core.ElasticsearchTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Refuses to start the api against an index that would reject its documents. Indexed domains carry their
+ * {@code version}, which the strict mappings of index versions before {@code domains/v3} do not declare: every write
+ * would fail until the alias reaches v3. The index-upgrader must therefore complete its migrations before this api is
+ * rolled out; the previous api keeps serving, and mirroring, while it runs. Indices with dynamic mappings, such as the
+ * one Spring Data creates when the index does not exist, accept the field.
+ *
+ * @author louis.gueye@gmail.com
+ */
+@Component
+public class IndexMappingCheck {
+
+    private static final String VERSION_FIELD = "version";
+
+    @Autowired
+    private Client indexClient;
+
+    @Autowired
+    private ElasticsearchTemplate elasticsearchTemplate;
+
+    @PostConstruct
+    public void check() throws IOException {
+        final String alias = elasticsearchTemplate.getPersistentEntityFor(Domain.class).getIndexName();
+        if (!indexClient.admin().indices().prepareExists(alias).execute().actionGet().isExists()) {
+            return;
+        }
+        final ImmutableOpenMap<String, ImmutableOpenMap<String, MappingMetaData>> mappings = indexClient.admin().indices()
+                .prepareGetMappings(alias).execute().actionGet().getMappings();
+        final Iterator<String> indices = mappings.keysIt();
+        while (indices.hasNext()) {
+            final String index = indices.next();
+            final Iterator<MappingMetaData> types = mappings.get(index).valuesIt();
+            while (types.hasNext()) {
+                final MappingMetaData type = types.next();
+                if (rejectsVersion(type.sourceAsMap())) {
+                    throw new IllegalStateException("Mapping '" + type.type() + "' of index '" + index + "' behind '" + alias
+                            + "' is strict and has no '" + VERSION_FIELD + "' field: run the index-upgrader up to '"
+                            + alias + "/v3' before starting this api");
+                }
+            }
+        }
+    }
+
+    private static boolean rejectsVersion(Map<String, Object> mapping) {
+        if (!"strict".equals(String.valueOf(mapping.get("dynamic")))) {
+            return false;
+        }
+        final Object properties = mapping.get("properties");
+        return !(properties instanceof Map && ((Map<?, ?>) properties).containsKey(VERSION_FIELD));
+    }
+}
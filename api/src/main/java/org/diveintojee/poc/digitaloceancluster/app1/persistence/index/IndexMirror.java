@@ -0,0 +1,130 @@
+package org.diveintojee.poc.digitaloceancluster.app1.persistence.index;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.diveintojee.poc.digitaloceancluster.app1.domain.Domain;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.index.VersionType;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.rest.RestStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.elasticsearch.core.ElasticsearchTemplate;
+import org.springframework.data.elasticsearch.core.mapping.ElasticsearchPersistentEntity;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Mirrors index writes to the index being built by a dual-write migration. The index-upgrader exposes it through the
+ * {@code <alias>_next} alias until the alias switch; the mirror resolves that alias periodically and writes to the
+ * physical index directly, so that a write racing with the switch never auto-creates an index named after the alias.
+ * Documents are written with the version the primary index assigned them (external versioning), which makes the
+ * mirror and the migration catch-up pass commutative. Operations are mirrored in bulk by {@link BulkIndexWriter}.
+ *
+ * @author louis.gueye@gmail.com
+ */
+@Component
+public class IndexMirror {
+
+    public static final String MIRROR_ALIAS_SUFFIX = "_next";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IndexMirror.class);
+
+    @Autowired
+    private Client indexClient;
+
+    @Autowired
+    private ElasticsearchTemplate elasticsearchTemplate;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private volatile String mirrorIndex;
+
+    @Scheduled(fixedDelayString = "${app1.index.mirror.refresh-millis:1000}")
+    public void refresh() {
+        final String alias = getPersistentEntity().getIndexName() + MIRROR_ALIAS_SUFFIX;
+        String resolved = null;
+        try {
+            final Iterator<String> indices = indexClient.admin().indices().prepareGetAliases(alias).execute().get()
+                    .getAliases().keysIt();
+            if (indices.hasNext()) {
+                resolved = indices.next();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException e) {
+            LOGGER.warn("Failed to resolve alias '{}', keeping mirror index '{}'", alias, mirrorIndex, e);
+            return;
+        }
+        if (resolved == null ? mirrorIndex != null : !resolved.equals(mirrorIndex)) {
+            LOGGER.info("Mirroring index writes to '{}'", resolved);
+        }
+        mirrorIndex = resolved;
+    }
+
+    public boolean isActive() {
+        return mirrorIndex != null;
+    }
+
+    /**
+     * Replays operations already applied to the primary index. Indexed domains carry the version the primary index
+     * assigned them. The mirror is best effort: the migration catch-up pass repairs whatever fails here.
+     */
+    public void mirror(List<IndexOperation> operations, Map<Long, Long> versions) {
+        final String target = mirrorIndex;
+        if (target == null || operations.isEmpty()) return;
+        final String type = getPersistentEntity().getIndexType();
+        final BulkRequestBuilder bulk = indexClient.prepareBulk();
+        try {
+            for (IndexOperation operation : operations) {
+                final String id = String.valueOf(operation.getId());
+                if (operation.getType() == IndexOperation.Type.DELETE) {
+                    bulk.add(indexClient.prepareDelete(target, type, id));
+                } else {
+                    bulk.add(indexClient.prepareIndex(target, type, id)
+                            .setSource(objectMapper.writeValueAsString(operation.getDomain()))
+                            .setVersion(versions.get(operation.getId())).setVersionType(VersionType.EXTERNAL));
+                }
+            }
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to serialize domains mirrored to '" + target + "'", e);
+        }
+        final BulkResponse response = bulk.execute().actionGet();
+        for (BulkItemResponse item : response.getItems()) {
+            // A version conflict means the mirror already holds a newer version of the domain
+            if (item.isFailed() && item.getFailure().getStatus() != RestStatus.CONFLICT) {
+                LOGGER.warn("Failed to mirror domain {} to '{}': {}", item.getId(), target, item.getFailureMessage());
+            }
+        }
+        LOGGER.debug("Mirrored {} index operation(s) to '{}'", operations.size(), target);
+    }
+
+    public void deleteAll() {
+        final String target = mirrorIndex;
+        if (target == null) return;
+        try {
+            indexClient.prepareDeleteByQuery(target).setTypes(getPersistentEntity().getIndexType())
+                    .setQuery(QueryBuilders.matchAllQuery()).execute().get();
+            LOGGER.debug("Deleted all domains from '{}'", target);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to delete all domains from '" + target + "'", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while deleting all domains from '" + target + "'", e);
+        }
+    }
+
+    private ElasticsearchPersistentEntity<?> getPersistentEntity() {
+        return elasticsearchTemplate.getPersistentEntityFor(Domain.class);
+    }
+}
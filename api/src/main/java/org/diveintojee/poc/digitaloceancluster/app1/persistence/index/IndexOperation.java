@@ -0,0 +1,96 @@
+package org.diveintojee.poc.digitaloceancluster.app1.persistence.index;
+
+import com.google.common.base.Objects;
+import org.diveintojee.poc.digitaloceancluster.app1.domain.Domain;
+
+/**
+ * Pending write of one domain to the index.
+ *
+ * @author louis.gueye@gmail.com
+ */
+public class IndexOperation {
+
+    public enum Type {
+        INDEX, DELETE
+    }
+
+    private final Type type;
+    private final Long id;
+    private final Domain domain;
+    private final long enqueuedAt = System.currentTimeMillis();
+    private Long outboxId;
+    private long sequence;
+    private int attempts;
+
+    private IndexOperation(Type type, Long id, Domain domain) {
+        this.type = type;
+        this.id = id;
+        this.domain = domain;
+    }
+
+    public static IndexOperation index(Domain domain) {
+        return new IndexOperation(Type.INDEX, domain.getId(), domain);
+    }
+
+    public static IndexOperation delete(Long id) {
+        return new IndexOperation(Type.DELETE, id, null);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    /**
+     * @return the domain to index, null for a delete
+     */
+    public Domain getDomain() {
+        return domain;
+    }
+
+    /**
+     * @return the outbox event recording this operation, null if none
+     */
+    public Long getOutboxId() {
+        return outboxId;
+    }
+
+    public IndexOperation withOutboxId(Long outboxId) {
+        this.outboxId = outboxId;
+        return this;
+    }
+
+    public long getEnqueuedAt() {
+        return enqueuedAt;
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    int getAttempts() {
+        return attempts;
+    }
+
+    int incrementAttempts() {
+        return ++attempts;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("type", type)
+                .add("id", id)
+                .add("outboxId", outboxId)
+                .add("sequence", sequence)
+                .add("attempts", attempts)
+                .toString();
+    }
+}
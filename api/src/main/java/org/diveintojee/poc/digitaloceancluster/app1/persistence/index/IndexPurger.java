@@ -0,0 +1,120 @@
+package org.diveintojee.poc.digitaloceancluster.app1.persistence.index;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import org.diveintojee.poc.digitaloceancluster.app1.domain.Domain;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.admin.indices.create.CreateIndexRequestBuilder;
+import org.elasticsearch.action.admin.indices.delete.DeleteIndexResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.metadata.MappingMetaData;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.elasticsearch.core.ElasticsearchTemplate;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Empties the domains index in constant time: creates a fresh index with the settings and mappings of the current one
+ * (those index-upgrader created from its mapping files), swaps the alias over atomically, then drops the old index
+ * asynchronously. The fresh index is named {@code <version index>-<generation>}, which index-upgrader recognizes as the
+ * same version.
+ *
+ * @author louis.gueye@gmail.com
+ */
+@Component
+public class IndexPurger {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IndexPurger.class);
+
+    /**
+     * Keep in sync with index-upgrader {@code Index.GENERATION_SEPARATOR}.
+     */
+    private static final String GENERATION_SEPARATOR = "-";
+
+    /**
+     * Assigned by the cluster when the index is created.
+     */
+    private static final Set<String> INTERNAL_SETTINGS = ImmutableSet.of(IndexMetaData.SETTING_UUID,
+            IndexMetaData.SETTING_VERSION_CREATED, IndexMetaData.SETTING_CREATION_DATE, "index.version.upgraded");
+
+    @Value("${app1.purge.timeout-millis:30000}")
+    private long timeoutMillis;
+
+    @Autowired
+    private Client indexClient;
+
+    @Autowired
+    private ElasticsearchTemplate elasticsearchTemplate;
+
+    @Autowired
+    private IndexMirror indexMirror;
+
+    /**
+     * @return false if the index cannot be recreated (no alias, or a dual-write migration reads from it): the caller
+     * should delete documents instead
+     */
+    public boolean purge() {
+        final String alias = elasticsearchTemplate.getPersistentEntityFor(Domain.class).getIndexName();
+        final Set<String> current = Sets.newHashSet(indexClient.admin().indices().prepareGetAliases(alias)
+                .execute().actionGet().getAliases().keysIt());
+        if (current.size() != 1 || indexMirror.isActive()) {
+            LOGGER.info("Cannot recreate index behind '{}' (indices {}, migration in progress: {})", alias, current, indexMirror.isActive());
+            return false;
+        }
+        final String old = current.iterator().next();
+        final String fresh = old.replaceFirst(GENERATION_SEPARATOR + "\\d+$", "") + GENERATION_SEPARATOR + System.currentTimeMillis();
+
+        final IndexMetaData metaData = indexClient.admin().cluster().prepareState().setIndices(old).execute().actionGet()
+                .getState().getMetaData().index(old);
+        final ImmutableSettings.Builder settings = ImmutableSettings.settingsBuilder();
+        for (Map.Entry<String, String> setting : metaData.getSettings().getAsMap().entrySet()) {
+            if (!INTERNAL_SETTINGS.contains(setting.getKey())) {
+                settings.put(setting.getKey(), setting.getValue());
+            }
+        }
+        final CreateIndexRequestBuilder create = indexClient.admin().indices().prepareCreate(fresh).setSettings(settings);
+        final Iterator<MappingMetaData> mappings = metaData.getMappings().valuesIt();
+        try {
+            while (mappings.hasNext()) {
+                final MappingMetaData mapping = mappings.next();
+                create.addMapping(mapping.type(), mapping.sourceAsMap());
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to read mappings of '" + old + "'", e);
+        }
+        if (!create.execute().actionGet().isAcknowledged()) {
+            throw new IllegalStateException("Failed to create index '" + fresh + "'");
+        }
+        indexClient.admin().cluster().prepareHealth(fresh).setWaitForYellowStatus()
+                .setTimeout(TimeValue.timeValueMillis(timeoutMillis)).execute().actionGet();
+
+        if (!indexClient.admin().indices().prepareAliases().removeAlias(old, alias).addAlias(fresh, alias)
+                .execute().actionGet().isAcknowledged()) {
+            throw new IllegalStateException("Failed to switch alias '" + alias + "' from '" + old + "' to '" + fresh + "'");
+        }
+        LOGGER.info("Alias '{}' switched from '{}' to empty index '{}'", alias, old, fresh);
+
+        indexClient.admin().indices().prepareDelete(old).execute(new ActionListener<DeleteIndexResponse>() {
+            @Override
+            public void onResponse(DeleteIndexResponse response) {
+                LOGGER.info("Deleted purged index '{}'", old);
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                LOGGER.warn("Failed to delete purged index '{}', delete it manually", old, e);
+            }
+        });
+        return true;
+    }
+}
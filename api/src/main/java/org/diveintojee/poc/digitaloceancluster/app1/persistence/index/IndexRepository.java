@@ -1,7 +1,7 @@
 package org.diveintojee.poc.digitaloceancluster.app1.persistence.index;
 
 import org.diveintojee.poc.digitaloceancluster.app1.domain.Domain;
-import org.springframework.data.elasticsearch.annotations.Query;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.elasticsearch.repository.ElasticsearchRepository;
 
 import java.util.List;
@@ -11,9 +11,9 @@ import java.util.List;
  */
 public interface IndexRepository extends ElasticsearchRepository<Domain, Long> {
 
-    public static final String DOMAINS_QUERY = "{\"bool\" : {\"should\" : [ {\"wildcard\" : { \"title\" : \"*?0*\" }}, {\"wildcard\" : { \"description\" : \"*?0*\" }}]}}";
-
-    @Query(DOMAINS_QUERY)
-    List<Domain> search(String query);
+    /**
+     * Keyset pagination: the page following the given id, whatever the index size. Pass a pageable sorted by id.
+     */
+    List<Domain> findByIdGreaterThan(Long id, Pageable pageable);
 
 }
@@ -0,0 +1,24 @@
+package org.diveintojee.poc.digitaloceancluster.app1.persistence.index;
+
+/**
+ * Broadcasts cache invalidations to every api node, the publishing one included. Declare a bean implementing it
+ * (message broker, cluster messaging...) to share invalidations across a multi-node deployment;
+ * {@link InMemoryInvalidationChannel} is used otherwise.
+ *
+ * @author louis.gueye@gmail.com
+ */
+public interface InvalidationChannel {
+
+    interface Listener {
+
+        void invalidate(Long id);
+
+        void invalidateAll();
+    }
+
+    void subscribe(Listener listener);
+
+    void publish(Long id);
+
+    void publishAll();
+}
@@ -0,0 +1,99 @@
+package org.diveintojee.poc.digitaloceancluster.app1.persistence.index;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.diveintojee.poc.digitaloceancluster.app1.domain.Domain;
+import org.diveintojee.poc.digitaloceancluster.app1.persistence.data.DatabaseRepository;
+import org.diveintojee.poc.digitaloceancluster.app1.persistence.data.OutboxEvent;
+import org.diveintojee.poc.digitaloceancluster.app1.persistence.data.OutboxRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Guarantees that every committed domain change reaches the index. Changes are recorded in the outbox in the
+ * same transaction as the domain row. {@link WriteBehindIndexer} applies them right after commit and marks them done;
+ * whatever is still in the outbox after {@code grace-millis} (crash, index unavailable, dropped operation) is swept
+ * by the relay in batches. The relay is state based: it indexes the domain as currently stored, or deletes it from
+ * the index if it no longer exists, so replaying an event is always safe.
+ *
+ * @author louis.gueye@gmail.com
+ */
+@Component
+public class OutboxRelay {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OutboxRelay.class);
+
+    @Value("${app1.index.outbox.batch-size:500}")
+    private int batchSize;
+
+    @Value("${app1.index.outbox.grace-millis:30000}")
+    private long graceMillis;
+
+    @Autowired
+    private OutboxRepository outboxRepository;
+
+    @Autowired
+    private DatabaseRepository databaseRepository;
+
+    @Autowired
+    private BulkIndexWriter bulkIndexWriter;
+
+    public void markDone(Collection<Long> outboxIds) {
+        if (outboxIds.isEmpty()) return;
+        outboxRepository.deleteByIdIn(outboxIds);
+    }
+
+    @Scheduled(fixedDelayString = "${app1.index.outbox.relay-interval-millis:5000}")
+    public void relay() {
+        while (true) {
+            final List<OutboxEvent> events = outboxRepository.findByCreatedAtBeforeOrderByIdAsc(
+                    new Date(System.currentTimeMillis() - graceMillis), new PageRequest(0, batchSize));
+            if (events.isEmpty()) return;
+
+            final Set<Long> domainIds = Sets.newLinkedHashSet();
+            for (OutboxEvent event : events) {
+                domainIds.add(event.getDomainId());
+            }
+            final Map<Long, Domain> stored = Maps.newHashMap();
+            for (Domain domain : databaseRepository.findAll(domainIds)) {
+                stored.put(domain.getId(), domain);
+            }
+            final List<IndexOperation> operations = Lists.newArrayList();
+            for (Long domainId : domainIds) {
+                operations.add(stored.containsKey(domainId) ? IndexOperation.index(stored.get(domainId)) : IndexOperation.delete(domainId));
+            }
+
+            final Set<Long> failed = Sets.newHashSet();
+            try {
+                for (IndexOperation operation : bulkIndexWriter.write(operations)) {
+                    failed.add(operation.getId());
+                }
+            } catch (RuntimeException e) {
+                LOGGER.warn("Failed to relay {} outbox event(s), will retry", events.size(), e);
+                return;
+            }
+            final List<Long> done = Lists.newArrayList();
+            for (OutboxEvent event : events) {
+                if (!failed.contains(event.getDomainId())) {
+                    done.add(event.getId());
+                }
+            }
+            markDone(done);
+            LOGGER.info("Relayed {} outbox event(s) for {} domain(s), {} failed", done.size(), domainIds.size(), failed.size());
+            // Leave failures to the next run rather than spinning on them
+            if (!failed.isEmpty() || events.size() < batchSize) return;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package org.diveintojee.poc.digitaloceancluster.app1.persistence.index;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+import org.diveintojee.poc.digitaloceancluster.app1.domain.DomainSearchResult;
+import org.elasticsearch.search.sort.SortOrder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches {@link DomainSearcher} results, keyed on the normalized query, the paging, sort and field parameters, and a
+ * generation. Every write and every index refresh bumps the generation: entries of previous generations are never
+ * read again and age out of the cache, which costs nothing on the write path. A write only reaches searches once the
+ * index refreshes, so results are not cached until the index refresh interval, {@code app1.index.refresh-interval-millis},
+ * has elapsed since the last write or an explicit refresh has made it visible: the pre-write hits would otherwise be
+ * cached under the post-write generation. The cache is bounded by the number of domains it holds (each entry weighs its item
+ * count plus one); entries also expire after a short delay, which bounds staleness from writes made through other api
+ * nodes. Hits, misses and the hit ratio are published as {@code cache.search.*} metrics.
+ *
+ * @author louis.gueye@gmail.com
+ */
+@Component
+public class SearchCache implements PublicMetrics {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SearchCache.class);
+
+    @Value("${app1.cache.search.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app1.cache.search.maximum-weight:100000}")
+    private long maximumWeight;
+
+    @Value("${app1.cache.search.expire-after-write-millis:5000}")
+    private long expireAfterWriteMillis;
+
+    @Value("${app1.index.refresh-interval-millis:1000}")
+    private long refreshIntervalMillis;
+
+    @Autowired
+    private DomainSearcher domainSearcher;
+
+    private final AtomicLong generation = new AtomicLong();
+
+    private volatile long lastWriteMillis;
+
+    private volatile long lastRefreshMillis;
+
+    private Cache<List<Object>, DomainSearchResult> cache;
+
+    @PostConstruct
+    public void init() {
+        cache = CacheBuilder.newBuilder()
+                .maximumWeight(maximumWeight)
+                .weigher(new Weigher<List<Object>, DomainSearchResult>() {
+                    @Override
+                    public int weigh(List<Object> key, DomainSearchResult value) {
+                        return value.getItems().size() + 1;
+                    }
+                })
+                .expireAfterWrite(expireAfterWriteMillis, TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+        LOGGER.info("Search cache {} (maximum weight {}, expire after {} ms)",
+                enabled ? "enabled" : "disabled", maximumWeight, expireAfterWriteMillis);
+    }
+
+    /**
+     * @see DomainSearcher#search(String, int, int, Map, String[])
+     */
+    public DomainSearchResult search(String query, int from, int size, Map<String, SortOrder> sort, String[] fields) {
+        if (!enabled) return domainSearcher.search(query, from, size, sort, fields);
+        final long current = generation.get();
+        final boolean visible = isLastWriteVisible();
+        final String normalized = normalize(query);
+        final List<Object> key = Arrays.<Object>asList(current, normalized, from, size, sort.toString(),
+                fields == null ? null : Arrays.asList(fields));
+        final DomainSearchResult cached = cache.getIfPresent(key);
+        if (cached != null) return cached;
+        final DomainSearchResult result = domainSearcher.search(normalized, from, size, sort, fields);
+        // A write during the search, or one not refreshed yet, may or may not be part of the result
+        if (visible && generation.get() == current) {
+            cache.put(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * Makes every cached result stale, and keeps results out of the cache until the write is visible to searches.
+     */
+    public void invalidate() {
+        lastWriteMillis = System.currentTimeMillis();
+        generation.incrementAndGet();
+    }
+
+    /**
+     * Makes every cached result stale, writes made before the refresh being visible to searches.
+     *
+     * @param startedAt when the refresh was requested
+     */
+    public void refreshed(long startedAt) {
+        lastRefreshMillis = startedAt;
+        generation.incrementAndGet();
+    }
+
+    private boolean isLastWriteVisible() {
+        final long lastWrite = lastWriteMillis;
+        return lastWrite < lastRefreshMillis || System.currentTimeMillis() - lastWrite >= refreshIntervalMillis;
+    }
+
+    /**
+     * Analyzers lowercase and tokenize on whitespace, so do keys.
+     */
+    private String normalize(String query) {
+        return CharMatcher.WHITESPACE.trimAndCollapseFrom(query, ' ').toLowerCase();
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        final CacheStats stats = cache.stats();
+        return Arrays.<Metric<?>>asList(
+                new Metric<>("cache.search.size", cache.size()),
+                new Metric<>("cache.search.generation", generation.get()),
+                new Metric<>("cache.search.hits", stats.hitCount()),
+                new Metric<>("cache.search.misses", stats.missCount()),
+                new Metric<>("cache.search.evictions", stats.evictionCount()),
+                new Metric<>("cache.search.hit-ratio", stats.hitRate()));
+    }
+}
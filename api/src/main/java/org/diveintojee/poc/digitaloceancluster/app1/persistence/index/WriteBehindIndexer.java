@@ -0,0 +1,283 @@
+package org.diveintojee.poc.digitaloceancluster.app1.persistence.index;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.diveintojee.poc.digitaloceancluster.app1.domain.Domain;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.boot.actuate.metrics.GaugeService;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Applies index operations once the surrounding transaction, if any, has committed. By default they are applied on the
+ * committing thread, before the write is acknowledged: reads, which go to the index, see the caller's own writes.
+ * <p/>
+ * With {@code app1.index.write-behind.enabled}, operations are applied off the request thread instead, trading
+ * read-your-writes for write latency: until the queue is drained, a domain just created may not be found and a domain
+ * just updated may be served, ETag included, at its previous version. A background worker drains the queue every
+ * {@code flush-interval-millis} or {@code batch-size} operations, keeps the last operation of each domain and applies
+ * the batch through {@link BulkIndexWriter}.
+ * <p/>
+ * The queue is bounded: when it stays full for {@code offer-timeout-millis}, callers block until the worker catches
+ * up. Failed operations are retried up to {@code max-attempts} times unless a newer operation on the same domain was
+ * queued meanwhile. Queue size, lag and batch sizes are published as gauges. Once applied, operations are marked done
+ * in the outbox; the {@link OutboxRelay} takes care of those that never make it.
+ *
+ * @author louis.gueye@gmail.com
+ */
+@Component
+public class WriteBehindIndexer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WriteBehindIndexer.class);
+
+    @Value("${app1.index.write-behind.enabled:false}")
+    private boolean enabled;
+
+    @Value("${app1.index.write-behind.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${app1.index.write-behind.batch-size:500}")
+    private int batchSize;
+
+    @Value("${app1.index.write-behind.flush-interval-millis:200}")
+    private long flushIntervalMillis;
+
+    @Value("${app1.index.write-behind.offer-timeout-millis:100}")
+    private long offerTimeoutMillis;
+
+    @Value("${app1.index.write-behind.max-attempts:3}")
+    private int maxAttempts;
+
+    @Autowired
+    private BulkIndexWriter bulkIndexWriter;
+
+    @Autowired
+    private OutboxRelay outboxRelay;
+
+    @Autowired
+    private GaugeService gaugeService;
+
+    @Autowired
+    private CounterService counterService;
+
+    private BlockingQueue<IndexOperation> queue;
+    private final AtomicLong sequence = new AtomicLong();
+    private final ConcurrentMap<Long, Long> latest = Maps.newConcurrentMap();
+    private final Object outstandingLock = new Object();
+    private long outstanding;
+    private Thread worker;
+    private volatile boolean running;
+
+    @PostConstruct
+    public void start() {
+        queue = new LinkedBlockingQueue<>(queueCapacity);
+        if (!enabled) return;
+        running = true;
+        worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drainLoop();
+            }
+        }, "index-write-behind");
+        worker.setDaemon(true);
+        worker.start();
+        LOGGER.info("Write-behind indexing started (capacity {}, batch size {}, flush interval {} ms)", queueCapacity, batchSize,
+                flushIntervalMillis);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (worker == null) return;
+        running = false;
+        worker.interrupt();
+        worker.join(TimeUnit.SECONDS.toMillis(10));
+        // Apply whatever is left on the caller thread
+        List<IndexOperation> remaining = Lists.newArrayList();
+        queue.drainTo(remaining);
+        if (!remaining.isEmpty()) {
+            apply(remaining);
+        }
+        LOGGER.info("Write-behind indexing stopped");
+    }
+
+    public void index(Domain domain, Long outboxId) {
+        submit(IndexOperation.index(domain).withOutboxId(outboxId));
+    }
+
+    public void delete(Long id, Long outboxId) {
+        submit(IndexOperation.delete(id).withOutboxId(outboxId));
+    }
+
+    /**
+     * Blocks until every operation submitted so far has been applied.
+     */
+    public void flush() throws InterruptedException {
+        synchronized (outstandingLock) {
+            while (outstanding > 0) {
+                outstandingLock.wait();
+            }
+        }
+    }
+
+    private void submit(final IndexOperation operation) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            // Never index what could still be rolled back
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    enqueue(operation);
+                }
+            });
+        } else {
+            enqueue(operation);
+        }
+    }
+
+    private void enqueue(IndexOperation operation) {
+        operation.setSequence(sequence.incrementAndGet());
+        latest.put(operation.getId(), operation.getSequence());
+        if (!enabled) {
+            apply(Collections.singletonList(operation));
+            return;
+        }
+        synchronized (outstandingLock) {
+            outstanding++;
+        }
+        try {
+            if (!queue.offer(operation, offerTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                counterService.increment("index.write-behind.blocked");
+                queue.put(operation);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            completed(1);
+            throw new IllegalStateException("Interrupted while queueing " + operation, e);
+        }
+        gaugeService.submit("index.write-behind.queue.size", queue.size());
+    }
+
+    private void drainLoop() {
+        while (running) {
+            try {
+                final IndexOperation first = queue.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                List<IndexOperation> batch = Lists.newArrayList(first);
+                // Give the batch a chance to fill up, bounded by the flush interval
+                final long deadline = first.getEnqueuedAt() + flushIntervalMillis;
+                while (batch.size() < batchSize) {
+                    final long wait = deadline - System.currentTimeMillis();
+                    if (queue.drainTo(batch, batchSize - batch.size()) == 0) {
+                        if (wait <= 0) break;
+                        final IndexOperation next = queue.poll(wait, TimeUnit.MILLISECONDS);
+                        if (next == null) break;
+                        batch.add(next);
+                    }
+                }
+                apply(batch);
+            } catch (InterruptedException e) {
+                if (running) {
+                    LOGGER.warn("Write-behind worker interrupted", e);
+                }
+            } catch (RuntimeException e) {
+                LOGGER.error("Write-behind worker failed to apply a batch", e);
+            }
+        }
+    }
+
+    private void apply(List<IndexOperation> batch) {
+        // Only the last operation on a domain matters
+        Map<Long, IndexOperation> coalesced = Maps.newLinkedHashMap();
+        for (IndexOperation operation : batch) {
+            coalesced.remove(operation.getId());
+            coalesced.put(operation.getId(), operation);
+        }
+        List<IndexOperation> failed;
+        try {
+            failed = bulkIndexWriter.write(coalesced.values());
+        } catch (RuntimeException e) {
+            LOGGER.warn("Failed to apply {} index operation(s)", coalesced.size(), e);
+            failed = Lists.newArrayList(coalesced.values());
+        }
+        for (IndexOperation operation : coalesced.values()) {
+            if (!failed.contains(operation)) {
+                latest.remove(operation.getId(), operation.getSequence());
+            }
+        }
+        markDone(batch, failed);
+        for (IndexOperation operation : failed) {
+            retryOrDrop(operation);
+        }
+        gaugeService.submit("index.write-behind.batch.size", coalesced.size());
+        gaugeService.submit("index.write-behind.lag.millis", System.currentTimeMillis() - batch.get(0).getEnqueuedAt());
+        gaugeService.submit("index.write-behind.queue.size", queue.size());
+        completed(batch.size());
+    }
+
+    /**
+     * Operations superseded by a successful one on the same domain are done as well.
+     */
+    private void markDone(List<IndexOperation> batch, List<IndexOperation> failed) {
+        Set<Long> failedIds = Sets.newHashSet();
+        for (IndexOperation operation : failed) {
+            failedIds.add(operation.getId());
+        }
+        List<Long> done = Lists.newArrayList();
+        for (IndexOperation operation : batch) {
+            if (operation.getOutboxId() != null && !failedIds.contains(operation.getId())) {
+                done.add(operation.getOutboxId());
+            }
+        }
+        try {
+            outboxRelay.markDone(done);
+        } catch (RuntimeException e) {
+            LOGGER.warn("Failed to mark {} outbox event(s) as done, the relay will replay them", done.size(), e);
+        }
+    }
+
+    private void retryOrDrop(IndexOperation operation) {
+        final Long newest = latest.get(operation.getId());
+        if (newest == null || newest != operation.getSequence()) {
+            // Superseded by a newer operation on the same domain
+            return;
+        }
+        if (enabled && operation.incrementAttempts() < maxAttempts) {
+            synchronized (outstandingLock) {
+                outstanding++;
+            }
+            if (queue.offer(operation)) {
+                return;
+            }
+            completed(1);
+        }
+        latest.remove(operation.getId(), operation.getSequence());
+        counterService.increment("index.write-behind.failures");
+        LOGGER.error("Dropping {} after {} attempt(s), the index is out of sync with the database", operation,
+                operation.getAttempts());
+    }
+
+    private void completed(int count) {
+        if (!enabled) return;
+        synchronized (outstandingLock) {
+            outstanding -= count;
+            outstandingLock.notifyAll();
+        }
+    }
+}
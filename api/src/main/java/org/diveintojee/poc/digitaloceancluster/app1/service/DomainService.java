@@ -1,21 +1,64 @@
 package org.diveintojee.poc.digitaloceancluster.app1.service;
 
+import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.io.BaseEncoding;
 import org.diveintojee.poc.digitaloceancluster.app1.domain.Domain;
+import org.diveintojee.poc.digitaloceancluster.app1.domain.DomainLookup;
+import org.diveintojee.poc.digitaloceancluster.app1.domain.DomainOperation;
+import org.diveintojee.poc.digitaloceancluster.app1.domain.DomainOperationResult;
+import org.diveintojee.poc.digitaloceancluster.app1.domain.DomainPage;
+import org.diveintojee.poc.digitaloceancluster.app1.domain.DomainSearchResult;
 import org.diveintojee.poc.digitaloceancluster.app1.persistence.data.DatabaseRepository;
+import org.diveintojee.poc.digitaloceancluster.app1.persistence.data.DomainBatchRepository;
+import org.diveintojee.poc.digitaloceancluster.app1.persistence.data.OutboxEvent;
+import org.diveintojee.poc.digitaloceancluster.app1.persistence.data.OutboxRepository;
+import org.diveintojee.poc.digitaloceancluster.app1.persistence.index.BulkIndexWriter;
+import org.diveintojee.poc.digitaloceancluster.app1.persistence.index.DomainCache;
+import org.diveintojee.poc.digitaloceancluster.app1.persistence.index.DomainSearcher;
+import org.diveintojee.poc.digitaloceancluster.app1.persistence.index.SearchCache;
+import org.diveintojee.poc.digitaloceancluster.app1.persistence.index.IndexMirror;
+import org.diveintojee.poc.digitaloceancluster.app1.persistence.index.IndexOperation;
+import org.diveintojee.poc.digitaloceancluster.app1.persistence.index.IndexPurger;
 import org.diveintojee.poc.digitaloceancluster.app1.persistence.index.IndexRepository;
+import org.diveintojee.poc.digitaloceancluster.app1.persistence.index.OutboxRelay;
+import org.diveintojee.poc.digitaloceancluster.app1.persistence.index.WriteBehindIndexer;
 import org.elasticsearch.client.AdminClient;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.search.sort.SortOrder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.validation.annotation.Validated;
 
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityNotFoundException;
+import javax.persistence.OptimisticLockException;
 import javax.transaction.Transactional;
+import javax.validation.ConstraintViolation;
 import javax.validation.Valid;
+import javax.validation.Validation;
+import javax.validation.Validator;
 import javax.validation.constraints.NotNull;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
 
 /**
@@ -25,62 +68,511 @@ import java.util.concurrent.ExecutionException;
 @Validated
 public class DomainService {
 
+    /**
+     * Receives domains as soon as their page is fetched.
+     */
+    public interface DomainHandler {
+        void handle(Domain domain) throws IOException;
+    }
+
+    /**
+     * Receives bulk results as soon as their chunk is applied.
+     */
+    public interface BulkResultHandler {
+        void handle(DomainOperationResult result) throws IOException;
+    }
+
+    private static final BaseEncoding CURSOR_ENCODING = BaseEncoding.base64Url().omitPadding();
+
+    private static final Splitter SPLITTER = Splitter.on(',').trimResults().omitEmptyStrings();
+
+    private static final Set<String> SEARCH_FIELDS = ImmutableSet.of("id", "title", "description");
+
+    /**
+     * Title and description are analyzed: sorting on them would order by an arbitrary token and load their terms in
+     * field data.
+     */
+    private static final Set<String> SORT_FIELDS = ImmutableSet.of(DomainSearcher.SCORE, "id");
+
+    @Value("${app1.bulk.chunk-size:1000}")
+    private int bulkChunkSize;
+
+    @Value("${app1.find-all.page-size:500}")
+    private int findAllPageSize;
+
+    @Value("${app1.delete-all.purge:true}")
+    private boolean purge;
+
+    @Value("${app1.mget.max-ids:1000}")
+    private int mgetMaxIds;
+
+    @Value("${app1.search.max-size:100}")
+    private int searchMaxSize;
+
+    /**
+     * Deepest hit reachable through from/size, each shard collects that many hits per search.
+     */
+    @Value("${app1.search.max-window:10000}")
+    private int searchMaxWindow;
+
     @Autowired
     private DatabaseRepository databaseRepository;
 
+    @Autowired
+    private OutboxRepository outboxRepository;
+
+    @Autowired
+    private DomainBatchRepository batchRepository;
+
     @Autowired
     private IndexRepository indexRepository;
 
+    @Autowired
+    private IndexMirror indexMirror;
+
+    @Autowired
+    private WriteBehindIndexer writeBehindIndexer;
+
+    @Autowired
+    private BulkIndexWriter bulkIndexWriter;
+
+    @Autowired
+    private SearchCache searchCache;
+
+    @Autowired
+    private DomainCache domainCache;
+
+    @Autowired
+    private IndexPurger indexPurger;
+
+    @Autowired
+    private OutboxRelay outboxRelay;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
     @Autowired
     private Client indexClient;
 
     private static final Logger LOGGER = LoggerFactory.getLogger(DomainService.class);
 
+    private final Validator validator = Validation.buildDefaultValidatorFactory().getValidator();
+
+    private TransactionTemplate transactionTemplate;
+
+    @PostConstruct
+    public void init() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
     @Transactional
     public Long save(@NotNull @Valid final Domain domain) {
         Domain persisted = databaseRepository.save(domain);
         LOGGER.debug("Saved domain in db : {}", persisted);
 //        if (persisted == null) throw new IllegalStateException("Not null entity expected");
 //        if (persisted.getId() == null) throw new IllegalStateException("Not null identifier expected");
-        indexRepository.save(persisted);
-        LOGGER.debug("Indexed domain in db : {}", persisted);
+        searchCache.invalidate();
+        writeBehindIndexer.index(persisted, record(persisted.getId(), OutboxEvent.Operation.INDEX));
+        LOGGER.debug("Queued domain for indexing : {}", persisted);
         return persisted.getId();
     }
 
-    public List<Domain> findAll() {
-        return Lists.newArrayList(indexRepository.findAll());
+    /**
+     * Applies a stream of operations chunk by chunk: each chunk is written with JDBC batches in one transaction,
+     * outbox events included, then indexed with one bulk request. Memory is bounded by the chunk size whatever the
+     * stream size. Items fail individually: an invalid item, a missing domain or a malformed stream tail only fails the
+     * items concerned. Index failures are not reported, the outbox relay repairs them.
+     */
+    public void bulk(Iterator<DomainOperation> operations, BulkResultHandler handler) throws IOException {
+        int offset = 0;
+        final List<DomainOperation> chunk = Lists.newArrayListWithCapacity(bulkChunkSize);
+        while (true) {
+            String malformed = null;
+            try {
+                while (chunk.size() < bulkChunkSize && operations.hasNext()) {
+                    chunk.add(operations.next());
+                }
+            } catch (RuntimeException e) {
+                malformed = e.getMessage();
+            }
+            for (DomainOperationResult result : applyChunk(chunk, offset)) {
+                handler.handle(result);
+            }
+            offset += chunk.size();
+            if (malformed != null) {
+                LOGGER.debug("Malformed bulk item {}: {}", offset, malformed);
+                handler.handle(new DomainOperationResult(offset, null, null, HttpStatus.BAD_REQUEST.value(), malformed));
+                return;
+            }
+            if (chunk.size() < bulkChunkSize) return;
+            chunk.clear();
+        }
+    }
+
+    private List<DomainOperationResult> applyChunk(final List<DomainOperation> chunk, final int offset) {
+        final DomainOperationResult[] results = new DomainOperationResult[chunk.size()];
+        final List<Integer> valid = Lists.newArrayList();
+        for (int i = 0; i < chunk.size(); i++) {
+            final DomainOperation operation = chunk.get(i);
+            final String error = validate(operation);
+            if (error == null) {
+                valid.add(i);
+            } else {
+                results[i] = new DomainOperationResult(offset + i, operation.getAction(), operation.getId(), HttpStatus.BAD_REQUEST.value(), error);
+            }
+        }
+        if (valid.isEmpty()) return Lists.newArrayList(results);
+
+        final Long[] outboxIds = new Long[chunk.size()];
+        try {
+            transactionTemplate.execute(new TransactionCallback<Void>() {
+                @Override
+                public Void doInTransaction(TransactionStatus status) {
+                    write(chunk, valid, results, outboxIds, offset);
+                    return null;
+                }
+            });
+        } catch (RuntimeException e) {
+            LOGGER.warn("Failed to write bulk chunk at {}", offset, e);
+            for (Integer i : valid) {
+                final DomainOperation operation = chunk.get(i);
+                results[i] = new DomainOperationResult(offset + i, operation.getAction(), operation.getId(), HttpStatus.INTERNAL_SERVER_ERROR.value(), String.valueOf(e.getMessage()));
+            }
+            return Lists.newArrayList(results);
+        }
+        index(chunk, results, outboxIds);
+        return Lists.newArrayList(results);
+    }
+
+    private String validate(DomainOperation operation) {
+        if (operation.getAction() == null) return "action is required";
+        if (operation.getAction() != DomainOperation.Action.CREATE && operation.getId() == null) return "id is required";
+        if (operation.getAction() == DomainOperation.Action.DELETE) return null;
+        if (operation.getDomain() == null) return "domain is required";
+        final StringBuilder errors = new StringBuilder();
+        for (ConstraintViolation<Domain> violation : validator.validate(operation.getDomain())) {
+            if (errors.length() > 0) errors.append(", ");
+            errors.append(violation.getPropertyPath()).append(' ').append(violation.getMessage());
+        }
+        return errors.length() == 0 ? null : errors.toString();
+    }
+
+    /**
+     * Writes the valid items in runs of the same action, so that operations on the same domain apply in order.
+     */
+    private void write(List<DomainOperation> chunk, List<Integer> valid, DomainOperationResult[] results, Long[] outboxIds, int offset) {
+        int start = 0;
+        while (start < valid.size()) {
+            final DomainOperation.Action action = chunk.get(valid.get(start)).getAction();
+            int end = start;
+            while (end < valid.size() && chunk.get(valid.get(end)).getAction() == action) {
+                end++;
+            }
+            final List<Integer> run = valid.subList(start, end);
+            final List<Domain> domains = Lists.newArrayListWithCapacity(run.size());
+            final List<Long> ids = Lists.newArrayListWithCapacity(run.size());
+            for (Integer i : run) {
+                final DomainOperation operation = chunk.get(i);
+                if (action == DomainOperation.Action.DELETE) {
+                    ids.add(operation.getId());
+                } else {
+                    operation.getDomain().setId(action == DomainOperation.Action.CREATE ? null : operation.getId());
+                    domains.add(operation.getDomain());
+                }
+            }
+            final Long[] expectedVersions = new Long[run.size()];
+            boolean[] applied;
+            if (action == DomainOperation.Action.CREATE) {
+                batchRepository.insert(domains);
+                applied = new boolean[run.size()];
+                Arrays.fill(applied, true);
+            } else if (action == DomainOperation.Action.UPDATE) {
+                for (int j = 0; j < run.size(); j++) {
+                    expectedVersions[j] = domains.get(j).getVersion();
+                }
+                applied = batchRepository.update(domains);
+            } else {
+                applied = batchRepository.delete(ids);
+            }
+            for (int j = 0; j < run.size(); j++) {
+                final int i = run.get(j);
+                final DomainOperation operation = chunk.get(i);
+                final Long id = action == DomainOperation.Action.DELETE ? operation.getId() : operation.getDomain().getId();
+                if (applied[j]) {
+                    final HttpStatus status = action == DomainOperation.Action.CREATE ? HttpStatus.CREATED : HttpStatus.OK;
+                    results[i] = new DomainOperationResult(offset + i, action, id, status.value(), null);
+                } else if (action == DomainOperation.Action.UPDATE && operation.getDomain().getVersion() != null) {
+                    // Not updated although it exists: its version is not the expected one
+                    results[i] = new DomainOperationResult(offset + i, action, id, HttpStatus.PRECONDITION_FAILED.value(),
+                            "Domain with id {" + id + "} is at version " + operation.getDomain().getVersion() + ", expected " + expectedVersions[j]);
+                } else {
+                    results[i] = new DomainOperationResult(offset + i, action, id, HttpStatus.NOT_FOUND.value(), "Domain with id {" + id + "} was not found");
+                }
+            }
+            start = end;
+        }
+
+        final List<Integer> applied = Lists.newArrayList();
+        final List<Long> domainIds = Lists.newArrayList();
+        final List<OutboxEvent.Operation> events = Lists.newArrayList();
+        for (Integer i : valid) {
+            if (results[i].getError() != null) continue;
+            applied.add(i);
+            domainIds.add(results[i].getId());
+            events.add(results[i].getAction() == DomainOperation.Action.DELETE ? OutboxEvent.Operation.DELETE : OutboxEvent.Operation.INDEX);
+        }
+        final List<Long> recorded = batchRepository.record(domainIds, events);
+        for (int j = 0; j < applied.size(); j++) {
+            outboxIds[applied.get(j)] = recorded.get(j);
+        }
+    }
+
+    /**
+     * Indexes the applied items of a chunk with one bulk request, then marks their outbox events done.
+     */
+    private void index(List<DomainOperation> chunk, DomainOperationResult[] results, Long[] outboxIds) {
+        // Only the last operation on a domain matters
+        final Map<Long, IndexOperation> coalesced = Maps.newLinkedHashMap();
+        for (int i = 0; i < chunk.size(); i++) {
+            if (outboxIds[i] == null) continue;
+            final Long id = results[i].getId();
+            coalesced.remove(id);
+            domainCache.evict(id);
+            coalesced.put(id, results[i].getAction() == DomainOperation.Action.DELETE
+                    ? IndexOperation.delete(id) : IndexOperation.index(chunk.get(i).getDomain()));
+        }
+        searchCache.invalidate();
+        final Set<Long> failed = Sets.newHashSet();
+        try {
+            for (IndexOperation operation : bulkIndexWriter.write(coalesced.values())) {
+                failed.add(operation.getId());
+            }
+        } catch (RuntimeException e) {
+            LOGGER.warn("Failed to index bulk chunk, the outbox relay will retry", e);
+            return;
+        }
+        final List<Long> done = Lists.newArrayList();
+        for (int i = 0; i < chunk.size(); i++) {
+            if (outboxIds[i] != null && !failed.contains(results[i].getId())) {
+                done.add(outboxIds[i]);
+            }
+        }
+        outboxRelay.markDone(done);
+    }
+
+    /**
+     * Streams every domain, ordered by id, one page at a time: memory use does not depend on the index size.
+     */
+    public void findAll(DomainHandler handler) throws IOException {
+        String cursor = null;
+        do {
+            final DomainPage page = findPage(cursor, findAllPageSize);
+            for (Domain domain : page.getItems()) {
+                handler.handle(domain);
+            }
+            cursor = page.getCursor();
+        } while (cursor != null);
+    }
+
+    /**
+     * @param cursor token returned with the previous page, null for the first page
+     * @throws IllegalArgumentException if the cursor is invalid
+     */
+    public DomainPage findPage(String cursor, int size) {
+        if (size <= 0) throw new IllegalArgumentException("Page size must be positive, got " + size);
+        final List<Domain> items = indexRepository.findByIdGreaterThan(decodeCursor(cursor),
+                new PageRequest(0, size, Sort.Direction.ASC, "id"));
+        final String next = items.size() < size ? null : encodeCursor(items.get(items.size() - 1).getId());
+        return new DomainPage(items, next);
     }
 
-    public List<Domain> search(String query) {
-        return indexRepository.search(query);
+    private static String encodeCursor(Long lastId) {
+        return CURSOR_ENCODING.encode(String.valueOf(lastId).getBytes(Charsets.UTF_8));
     }
 
+    private static Long decodeCursor(String cursor) {
+        if (cursor == null) return Long.MIN_VALUE;
+        try {
+            return Long.valueOf(new String(CURSOR_ENCODING.decode(cursor), Charsets.UTF_8));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor '" + cursor + "'", e);
+        }
+    }
+
+    /**
+     * @param sort   comma separated {@code field[:asc|desc]} list, fields being {@code _score} or {@code id}, by
+     *               relevance when null
+     * @param fields comma separated fields to return, all when null
+     * @throws IllegalArgumentException if a parameter is invalid
+     */
+    public DomainSearchResult search(String query, int from, int size, String sort, String fields) {
+        if (from < 0) throw new IllegalArgumentException("from must not be negative, got " + from);
+        if (size < 0 || size > searchMaxSize) throw new IllegalArgumentException("size must be between 0 and " + searchMaxSize + ", got " + size);
+        if (from + size > searchMaxWindow) throw new IllegalArgumentException("from + size must not exceed " + searchMaxWindow + ", got " + (from + size));
+        final Map<String, SortOrder> sortFields = Maps.newLinkedHashMap();
+        if (sort != null) {
+            for (String criterion : SPLITTER.split(sort)) {
+                final List<String> parts = Splitter.on(':').trimResults().splitToList(criterion);
+                final String field = parts.get(0);
+                if (!SORT_FIELDS.contains(field)) throw new IllegalArgumentException("Cannot sort by '" + field + "'");
+                if (parts.size() > 2) throw new IllegalArgumentException("Invalid sort '" + criterion + "'");
+                final String order = parts.size() == 2 ? parts.get(1) : DomainSearcher.SCORE.equals(field) ? "desc" : "asc";
+                if (!"asc".equalsIgnoreCase(order) && !"desc".equalsIgnoreCase(order)) throw new IllegalArgumentException("Invalid sort order '" + order + "'");
+                sortFields.put(field, SortOrder.valueOf(order.toUpperCase()));
+            }
+        }
+        String[] includes = null;
+        if (fields != null) {
+            final List<String> selected = Lists.newArrayList(SPLITTER.split(fields));
+            for (String field : selected) {
+                if (!SEARCH_FIELDS.contains(field)) throw new IllegalArgumentException("Unknown field '" + field + "'");
+            }
+            includes = selected.toArray(new String[selected.size()]);
+        }
+        return searchCache.search(query, from, size, sortFields, includes);
+    }
+
+    /**
+     * @see DomainCache#changeMarker()
+     */
+    public String changeMarker() {
+        return domainCache.changeMarker();
+    }
+
+    /**
+     * Serves the indexed copy when it is at the database version, the row otherwise: the index may lag the database,
+     * the entity tag derived from the version must not.
+     *
+     * @return the domain, null if it does not exist
+     */
     public Domain getOne(Long id) {
-        return indexRepository.findOne(id);
+        final Long version = batchRepository.version(id);
+        if (version == null) return null;
+        final Domain indexed = domainCache.get(id);
+        // Documents indexed before versioning count as version 0, the default of existing rows
+        if (indexed != null && version.equals(indexed.getVersion() == null ? 0L : indexed.getVersion())) return indexed;
+        LOGGER.debug("Index lags the database for domain {}, serving the row", id);
+        return databaseRepository.findOne(id);
     }
 
-    public void update(Long id, @NotNull @Valid final Domain domain) {
-        Domain persisted = databaseRepository.save(domain);
+    /**
+     * @return one lookup per requested id, in request order, duplicates included
+     * @throws IllegalArgumentException if more than {@code app1.mget.max-ids} ids are requested
+     */
+    public List<DomainLookup> getAll(List<Long> ids) {
+        if (ids.size() > mgetMaxIds) throw new IllegalArgumentException("At most " + mgetMaxIds + " ids per call, got " + ids.size());
+        final Map<Long, Domain> found = domainCache.getAll(Sets.newLinkedHashSet(ids));
+        final List<DomainLookup> lookups = Lists.newArrayListWithCapacity(ids.size());
+        for (Long id : ids) {
+            lookups.add(new DomainLookup(id, found.get(id)));
+        }
+        return lookups;
+    }
+
+    /**
+     * @param expectedVersion version the client last saw, null to skip the check
+     * @throws EntityNotFoundException  if the domain does not exist
+     * @throws OptimisticLockException if the domain version is not the expected one
+     */
+    @Transactional
+    public void update(Long id, @NotNull @Valid final Domain domain, Long expectedVersion) {
+        final Domain current = loadForWrite(id, expectedVersion);
+        current.setTitle(domain.getTitle());
+        current.setDescription(domain.getDescription());
+        // The version is incremented on flush, before the after-commit hook queues the domain for indexing
+        Domain persisted = databaseRepository.save(current);
         LOGGER.debug("Updated domain in db : {}", persisted);
-        indexRepository.save(persisted);
-        LOGGER.debug("Indexed domain in db : {}", persisted);
+        domainCache.evict(persisted.getId());
+        searchCache.invalidate();
+        writeBehindIndexer.index(persisted, record(persisted.getId(), OutboxEvent.Operation.INDEX));
+        LOGGER.debug("Queued domain for indexing : {}", persisted);
     }
 
-    public void delete(Long id) {
-        databaseRepository.delete(id);
+    /**
+     * @param expectedVersion version the client last saw, null to skip the check
+     * @throws EntityNotFoundException  if the domain does not exist
+     * @throws OptimisticLockException if the domain version is not the expected one
+     */
+    @Transactional
+    public void delete(Long id, Long expectedVersion) {
+        databaseRepository.delete(loadForWrite(id, expectedVersion));
         LOGGER.debug("Deleted domain from db : {}", id);
-        indexRepository.delete(id);
-        LOGGER.debug("Deleted domain from index : {}", id);
+        domainCache.evict(id);
+        searchCache.invalidate();
+        writeBehindIndexer.delete(id, record(id, OutboxEvent.Operation.DELETE));
+        LOGGER.debug("Queued domain for deletion from index : {}", id);
     }
 
+    /**
+     * In purge mode, truncates the tables and swaps in an empty index: the cost does not depend on the number of
+     * domains. Falls back to deleting rows, in one transaction, on databases other than MySQL, and to deleting documents
+     * when the index cannot be recreated.
+     */
     public void delete() {
-        databaseRepository.deleteAll();
-        LOGGER.debug("Deleted all domains from db");
-        indexRepository.deleteAll();
-        LOGGER.debug("Deleted all domains from index");
+        if (purge && batchRepository.truncate()) {
+            LOGGER.debug("Truncated domains in db");
+        } else {
+            transactionTemplate.execute(new TransactionCallback<Void>() {
+                @Override
+                public Void doInTransaction(TransactionStatus status) {
+                    databaseRepository.deleteAll();
+                    // The index is wiped below, pending changes are moot
+                    outboxRepository.deleteAll();
+                    return null;
+                }
+            });
+            LOGGER.debug("Deleted all domains from db");
+        }
+        // Let queued operations land first, they would resurrect deleted domains otherwise
+        flushIndexQueue();
+        if (purge && indexPurger.purge()) {
+            LOGGER.debug("Replaced index with an empty one");
+        } else {
+            indexRepository.deleteAll();
+            LOGGER.debug("Deleted all domains from index");
+            indexMirror.deleteAll();
+        }
+        domainCache.evictAll();
+        searchCache.invalidate();
     }
 
+    /**
+     * Makes every write acknowledged so far visible to searches.
+     */
     public void refreshIndex(String index) throws ExecutionException, InterruptedException {
+        writeBehindIndexer.flush();
+        final long startedAt = System.currentTimeMillis();
         indexClient.admin().indices().prepareRefresh(index).execute().get();
+        searchCache.refreshed(startedAt);
+    }
+
+    private Domain loadForWrite(Long id, Long expectedVersion) {
+        final Domain current = databaseRepository.findOne(id);
+        if (current == null) {
+            throw new EntityNotFoundException("Domain with id {" + id + "} was not found");
+        }
+        if (expectedVersion != null && !expectedVersion.equals(current.getVersion())) {
+            throw new OptimisticLockException("Domain with id {" + id + "} is at version " + current.getVersion()
+                    + ", expected " + expectedVersion);
+        }
+        return current;
+    }
+
+    /**
+     * Records the change in the outbox, in the caller's transaction.
+     *
+     * @return the outbox event id
+     */
+    private Long record(Long domainId, OutboxEvent.Operation operation) {
+        return outboxRepository.save(new OutboxEvent(domainId, operation)).getId();
+    }
+
+    private void flushIndexQueue() {
+        try {
+            writeBehindIndexer.flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while flushing index queue", e);
+        }
     }
 }
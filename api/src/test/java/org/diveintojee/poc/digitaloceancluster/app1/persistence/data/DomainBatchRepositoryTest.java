@@ -0,0 +1,134 @@
+package org.diveintojee.poc.digitaloceancluster.app1.persistence.data;
+
+import com.google.common.collect.Lists;
+import org.diveintojee.poc.digitaloceancluster.app1.domain.Domain;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * H2 returns the generated key of the last row of a batch only: the repository must still assign every id.
+ */
+public class DomainBatchRepositoryTest {
+
+	private EmbeddedDatabase database;
+	private JdbcTemplate jdbcTemplate;
+	private DomainBatchRepository underTest;
+
+	@Before
+	public void before() {
+		database = new EmbeddedDatabaseBuilder().setType(EmbeddedDatabaseType.H2).build();
+		jdbcTemplate = new JdbcTemplate(database);
+		jdbcTemplate.execute("CREATE TABLE domains (id INT AUTO_INCREMENT PRIMARY KEY NOT NULL, title VARCHAR(50), "
+				+ "description VARCHAR(200), version BIGINT NOT NULL DEFAULT 0)");
+		jdbcTemplate.execute("CREATE TABLE domain_outbox (id BIGINT AUTO_INCREMENT PRIMARY KEY NOT NULL, domain_id INT NOT NULL, "
+				+ "operation VARCHAR(10) NOT NULL, created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP)");
+		underTest = new DomainBatchRepository();
+		ReflectionTestUtils.setField(underTest, "jdbcTemplate", jdbcTemplate);
+	}
+
+	@After
+	public void after() {
+		database.shutdown();
+	}
+
+	@Test
+	public void insertShouldAssignEveryGeneratedIdWhenDriverReturnsLastKeyOnly() {
+		// Given
+		List<Domain> domains = Lists.newArrayList(domain("one"), domain("two"), domain("three"));
+
+		// When
+		underTest.insert(domains);
+
+		// Then
+		for (Domain domain : domains) {
+			assertNotNull(domain.getId());
+			assertEquals(Long.valueOf(0), domain.getVersion());
+			assertEquals(domain.getTitle(), jdbcTemplate.queryForObject("select title from domains where id = ?", String.class, domain.getId()));
+		}
+	}
+
+	@Test
+	public void recordShouldReturnEveryOutboxEventId() {
+		// Given
+		List<Domain> domains = Lists.newArrayList(domain("one"), domain("two"));
+		underTest.insert(domains);
+
+		// When
+		List<Long> ids = underTest.record(Arrays.asList(domains.get(0).getId(), domains.get(1).getId()),
+				Arrays.asList(OutboxEvent.Operation.INDEX, OutboxEvent.Operation.INDEX));
+
+		// Then
+		assertEquals(2, ids.size());
+		for (int i = 0; i < ids.size(); i++) {
+			assertEquals(domains.get(i).getId(), jdbcTemplate.queryForObject("select domain_id from domain_outbox where id = ?", Long.class, ids.get(i)));
+		}
+	}
+
+	@Test
+	public void updateShouldOnlyApplyDomainsAtTheExpectedVersion() {
+		// Given
+		List<Domain> domains = Lists.newArrayList(domain("one"), domain("two"), domain("three"));
+		underTest.insert(domains);
+		Domain current = update(domains.get(0), 0L);
+		Domain stale = update(domains.get(1), 3L);
+		Domain unconditional = update(domains.get(2), null);
+		Domain missing = update(domain("four"), null);
+		missing.setId(-1L);
+
+		// When
+		boolean[] updated = underTest.update(Lists.newArrayList(current, stale, unconditional, missing));
+
+		// Then
+		assertTrue(updated[0]);
+		assertEquals(Long.valueOf(1), current.getVersion());
+		assertFalse(updated[1]);
+		assertEquals(Long.valueOf(0), stale.getVersion());
+		assertEquals("two", jdbcTemplate.queryForObject("select title from domains where id = ?", String.class, stale.getId()));
+		assertTrue(updated[2]);
+		assertEquals(Long.valueOf(1), unconditional.getVersion());
+		assertFalse(updated[3]);
+		assertNull(missing.getVersion());
+	}
+
+	@Test
+	public void truncateShouldLeaveTablesToTheCallerOnDatabasesOtherThanMySql() {
+		// Given
+		underTest.insert(Lists.newArrayList(domain("one")));
+
+		// When
+		boolean truncated = underTest.truncate();
+
+		// Then
+		assertFalse(truncated);
+		assertEquals(Integer.valueOf(1), jdbcTemplate.queryForObject("select count(*) from domains", Integer.class));
+	}
+
+	private Domain update(Domain domain, Long expectedVersion) {
+		final Domain update = domain(domain.getTitle() + " updated");
+		update.setId(domain.getId());
+		update.setVersion(expectedVersion);
+		return update;
+	}
+
+	private Domain domain(String title) {
+		final Domain domain = new Domain();
+		domain.setTitle(title);
+		domain.setDescription(title + " description");
+		return domain;
+	}
+}
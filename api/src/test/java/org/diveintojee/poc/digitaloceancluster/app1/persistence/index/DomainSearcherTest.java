@@ -0,0 +1,29 @@
+package org.diveintojee.poc.digitaloceancluster.app1.persistence.index;
+
+import com.google.common.base.Strings;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DomainSearcherTest {
+
+	@Test
+	public void termsWithinNGramBoundsShouldUseSubstringFields() {
+		assertTrue(DomainSearcher.fitsSubstringFields("ab"));
+		assertTrue(DomainSearcher.fitsSubstringFields("digital ocean"));
+		assertTrue(DomainSearcher.fitsSubstringFields(Strings.repeat("a", DomainSearcher.SUBSTRING_MAX_GRAM)));
+	}
+
+	@Test
+	public void termShorterThanMinGramShouldFallBackToWildcard() {
+		assertFalse(DomainSearcher.fitsSubstringFields("a"));
+		assertFalse(DomainSearcher.fitsSubstringFields("digital o"));
+	}
+
+	@Test
+	public void termLongerThanMaxGramShouldFallBackToWildcard() {
+		assertFalse(DomainSearcher.fitsSubstringFields(Strings.repeat("a", DomainSearcher.SUBSTRING_MAX_GRAM + 1)));
+		assertFalse(DomainSearcher.fitsSubstringFields("ocean " + Strings.repeat("b", DomainSearcher.SUBSTRING_MAX_GRAM + 1)));
+	}
+}
@@ -0,0 +1,83 @@
+package org.diveintojee.poc.digitaloceancluster.app1.persistence.index;
+
+import org.diveintojee.poc.digitaloceancluster.app1.domain.Domain;
+import org.diveintojee.poc.digitaloceancluster.app1.domain.DomainSearchResult;
+import org.elasticsearch.search.sort.SortOrder;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Results computed between a write and the index refresh may miss the write: they must not be cached.
+ */
+public class SearchCacheTest {
+
+	private static final Map<String, SortOrder> NO_SORT = Collections.emptyMap();
+
+	private DomainSearcher domainSearcher;
+	private SearchCache underTest;
+
+	@Before
+	public void before() {
+		domainSearcher = mock(DomainSearcher.class);
+		when(domainSearcher.search(anyString(), anyInt(), anyInt(), anyMapOf(String.class, SortOrder.class), any(String[].class)))
+				.thenReturn(new DomainSearchResult(0, 1, 0, Collections.<Domain>emptyList()));
+		underTest = new SearchCache();
+		ReflectionTestUtils.setField(underTest, "enabled", true);
+		ReflectionTestUtils.setField(underTest, "maximumWeight", 100L);
+		ReflectionTestUtils.setField(underTest, "expireAfterWriteMillis", 60000L);
+		ReflectionTestUtils.setField(underTest, "refreshIntervalMillis", 60000L);
+		ReflectionTestUtils.setField(underTest, "domainSearcher", domainSearcher);
+		underTest.init();
+	}
+
+	@Test
+	public void searchShouldBeCachedWithoutPendingWrite() {
+		// When
+		underTest.search("ocean", 0, 10, NO_SORT, null);
+		underTest.search("ocean", 0, 10, NO_SORT, null);
+
+		// Then
+		verify(domainSearcher, times(1)).search("ocean", 0, 10, NO_SORT, null);
+	}
+
+	@Test
+	public void searchShouldNotBeCachedBeforeTheWriteIsRefreshed() {
+		// Given
+		underTest.invalidate();
+
+		// When
+		underTest.search("ocean", 0, 10, NO_SORT, null);
+		underTest.search("ocean", 0, 10, NO_SORT, null);
+
+		// Then
+		verify(domainSearcher, times(2)).search("ocean", 0, 10, NO_SORT, null);
+	}
+
+	@Test
+	public void searchShouldBeCachedOnceTheWriteIsRefreshed() throws InterruptedException {
+		// Given
+		underTest.invalidate();
+		Thread.sleep(5);
+		underTest.refreshed(System.currentTimeMillis());
+
+		// When
+		underTest.search("ocean", 0, 10, NO_SORT, null);
+		underTest.search("ocean", 0, 10, NO_SORT, null);
+
+		// Then
+		verify(domainSearcher, times(1)).search("ocean", 0, 10, NO_SORT, null);
+	}
+}
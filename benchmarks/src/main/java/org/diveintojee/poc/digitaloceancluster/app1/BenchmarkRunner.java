@@ -0,0 +1,33 @@
+package org.diveintojee.poc.digitaloceancluster.app1;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.Lists;
+import org.openjdk.jmh.Main;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Runs the JMH suites. Unless told otherwise with {@code -rf}, results are written as JSON to
+ * {@code target/jmh-result-<version>.json}, so that runs of two releases can be compared. Every other argument goes to
+ * JMH as is, e.g. {@code java -jar app1-benchmarks.jar DomainSerialization -f 1}.
+ *
+ * @author louis.gueye@gmail.com
+ */
+public class BenchmarkRunner {
+
+    private static final String RESULT_DIRECTORY = "target";
+
+    public static void main(String[] args) throws Exception {
+        final List<String> arguments = Lists.newArrayList(args);
+        if (!arguments.contains("-rf")) {
+            final String version = Objects.firstNonNull(BenchmarkRunner.class.getPackage().getImplementationVersion(), "dev");
+            final File result = new File(RESULT_DIRECTORY, "jmh-result-" + version + ".json");
+            if (!result.getParentFile().isDirectory() && !result.getParentFile().mkdirs()) {
+                throw new IllegalStateException("Failed to create result directory '" + result.getParent() + "'");
+            }
+            arguments.addAll(Lists.newArrayList("-rf", "json", "-rff", result.getPath()));
+        }
+        Main.main(arguments.toArray(new String[arguments.size()]));
+    }
+}
@@ -0,0 +1,90 @@
+package org.diveintojee.poc.digitaloceancluster.app1;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.common.collect.Lists;
+import org.apache.commons.lang3.RandomStringUtils;
+import org.diveintojee.poc.digitaloceancluster.app1.domain.Domain;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jackson round trips of domains, configured as the api configures its mappers. A list of
+ * {@code app1.find-all.page-size} domains is what a streamed findAll page costs.
+ *
+ * @author louis.gueye@gmail.com
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DomainSerializationBenchmark {
+
+    @Param({"1", "100", "500"})
+    private int size;
+
+    private final ObjectMapper objectMapper = new ObjectMapper().disable(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+    private JavaType listType;
+    private Domain domain;
+    private List<Domain> domains;
+    private byte[] domainBytes;
+    private byte[] domainsBytes;
+
+    @Setup
+    public void setUp() throws IOException {
+        listType = objectMapper.getTypeFactory().constructCollectionType(List.class, Domain.class);
+        domains = Lists.newArrayListWithCapacity(size);
+        for (long id = 1; id <= size; id++) {
+            domains.add(domain(id));
+        }
+        domain = domains.get(0);
+        domainBytes = objectMapper.writeValueAsBytes(domain);
+        domainsBytes = objectMapper.writeValueAsBytes(domains);
+    }
+
+    static Domain domain(long id) {
+        final Domain domain = new Domain();
+        domain.setId(id);
+        domain.setTitle(RandomStringUtils.randomAlphanumeric(Domain.TITLE_MAX_SIZE));
+        domain.setDescription(RandomStringUtils.randomAlphanumeric(Domain.DESCRIPTION_MAX_SIZE));
+        domain.setVersion(0L);
+        return domain;
+    }
+
+    @Benchmark
+    public byte[] serializeDomain() throws IOException {
+        return objectMapper.writeValueAsBytes(domain);
+    }
+
+    @Benchmark
+    public Domain deserializeDomain() throws IOException {
+        return objectMapper.readValue(domainBytes, Domain.class);
+    }
+
+    @Benchmark
+    public byte[] serializeDomains() throws IOException {
+        return objectMapper.writeValueAsBytes(domains);
+    }
+
+    @Benchmark
+    public List<Domain> deserializeDomains() throws IOException {
+        return objectMapper.readValue(domainsBytes, listType);
+    }
+}
@@ -0,0 +1,121 @@
+package org.diveintojee.poc.digitaloceancluster.app1;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import org.diveintojee.poc.digitaloceancluster.app1.domain.Domain;
+import org.diveintojee.poc.digitaloceancluster.app1.domain.DomainSearchResult;
+import org.diveintojee.poc.digitaloceancluster.app1.service.DomainService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.elasticsearch.repository.config.EnableElasticsearchRepositories;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Save, get and search through the real {@link DomainService}, wired as in the api, against embedded stores: H2 for
+ * the database and a local Elasticsearch node for the index. The index is the one Spring Data creates from the
+ * {@link Domain} annotations, without the substring analyzers of the index-upgrader mappings, so search runs the
+ * wildcard fallback. Caches are benchmarked on and off.
+ *
+ * @author louis.gueye@gmail.com
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DomainServiceBenchmark {
+
+    private static final int DOMAINS = 1000;
+    private static final int QUERIES = 100;
+    private static final String INDEX = "domains";
+
+    /**
+     * The api context, minus the index-upgrader classes sharing its base package.
+     */
+    @Configuration
+    @EnableAutoConfiguration
+    @ComponentScan(basePackages = {
+            "org.diveintojee.poc.digitaloceancluster.app1.api",
+            "org.diveintojee.poc.digitaloceancluster.app1.persistence",
+            "org.diveintojee.poc.digitaloceancluster.app1.service"})
+    @EnableJpaRepositories(basePackages = "org.diveintojee.poc.digitaloceancluster.app1.persistence.data")
+    @EnableElasticsearchRepositories(basePackages = "org.diveintojee.poc.digitaloceancluster.app1.persistence.index")
+    @EnableScheduling
+    static class EmbeddedStores {
+    }
+
+    @Param({"true", "false"})
+    private boolean caches;
+
+    private ConfigurableApplicationContext context;
+    private DomainService domainService;
+    private List<Long> ids;
+    private List<String> queries;
+
+    @Setup
+    public void setUp() throws Exception {
+        System.setProperty("es.path.data", Files.createTempDir().getAbsolutePath());
+        context = new SpringApplicationBuilder(EmbeddedStores.class).web(false)
+                .properties("app1.cache.domains.enabled=" + caches,
+                        "app1.cache.search.enabled=" + caches,
+                        "app1.search.substring-fields=false")
+                .run();
+        domainService = context.getBean(DomainService.class);
+        ids = Lists.newArrayListWithCapacity(DOMAINS);
+        queries = Lists.newArrayListWithCapacity(QUERIES);
+        for (int i = 1; i <= DOMAINS; i++) {
+            final Domain domain = DomainSerializationBenchmark.domain(i);
+            domain.setId(null);
+            domain.setVersion(null);
+            ids.add(domainService.save(domain));
+            if (queries.size() < QUERIES) {
+                queries.add(domain.getTitle().substring(0, 3));
+            }
+        }
+        domainService.refreshIndex(INDEX);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Long save() {
+        final Domain domain = DomainSerializationBenchmark.domain(0);
+        domain.setId(null);
+        domain.setVersion(null);
+        return domainService.save(domain);
+    }
+
+    @Benchmark
+    public Domain getOne() {
+        return domainService.getOne(ids.get(ThreadLocalRandom.current().nextInt(ids.size())));
+    }
+
+    @Benchmark
+    public DomainSearchResult search() {
+        return domainService.search(queries.get(ThreadLocalRandom.current().nextInt(queries.size())), 0, 10, null, null);
+    }
+}
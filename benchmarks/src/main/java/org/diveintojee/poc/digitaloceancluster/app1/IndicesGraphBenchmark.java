@@ -0,0 +1,53 @@
+package org.diveintojee.poc.digitaloceancluster.app1;
+
+import org.elasticsearch.client.transport.TransportClient;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scans the migration resources shipped with the index-upgrader, as every run of {@link MigrationService#migrate()}
+ * does before planning: classpath pattern matching plus one read per settings and mapping file.
+ *
+ * @author louis.gueye@gmail.com
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IndicesGraphBenchmark {
+
+    private TransportClient client;
+    private MigrationService migrationService;
+
+    @Setup
+    public void setUp() {
+        client = new TransportClient(ImmutableSettings.settingsBuilder().put("client.transport.sniff", false));
+        migrationService = new MigrationService(client);
+    }
+
+    @TearDown
+    public void tearDown() {
+        client.close();
+    }
+
+    @Benchmark
+    public Set<Index> buildIndicesGraph() throws IOException {
+        return migrationService.buildIndicesGraph("/migrations/**/v?");
+    }
+}
@@ -0,0 +1,121 @@
+package org.diveintojee.poc.digitaloceancluster.app1;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.transport.TransportClient;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.text.StringText;
+import org.elasticsearch.search.internal.InternalSearchHit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds the bulk request a {@link Migration} sends for one full buffer of {@link MigrationSettings#getBulkActions()}
+ * scrolled hits, then encodes it as it goes on the wire. Documents are either copied as they were read or go through a
+ * {@link DocumentTransformer}, which parses and re-serializes every source. No cluster is involved: the client is never
+ * connected.
+ *
+ * @author louis.gueye@gmail.com
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MigrationBenchmark {
+
+    private static final String TYPE = "domain";
+
+    private static final DocumentTransformer IDENTITY = new DocumentTransformer() {
+        @Override
+        public Map<String, Object> transform(String type, String id, Map<String, Object> source) {
+            return source;
+        }
+    };
+
+    @Param({"false", "true"})
+    private boolean transformed;
+
+    private TransportClient client;
+    private Migration migration;
+    private String targetName;
+    private DocumentTransformer transformer;
+    private BytesReference[] sources;
+
+    @Setup
+    public void setUp() throws IOException {
+        client = new TransportClient(ImmutableSettings.settingsBuilder().put("client.transport.sniff", false));
+        final MigrationSettings settings = new MigrationSettings();
+        final Index source = index("v2");
+        final Index target = index("v3");
+        migration = new Migration(client, source, target, settings);
+        targetName = target.getName();
+        transformer = transformed ? IDENTITY : null;
+        final ObjectMapper objectMapper = new ObjectMapper();
+        sources = new BytesReference[settings.getBulkActions()];
+        for (int i = 0; i < sources.length; i++) {
+            sources[i] = new BytesArray(objectMapper.writeValueAsBytes(DomainSerializationBenchmark.domain(i + 1)));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        client.close();
+    }
+
+    private static Index index(String version) {
+        final Index index = new Index();
+        index.setAlias("domains");
+        index.setVersion(version);
+        return index;
+    }
+
+    /**
+     * Hits are built on every invocation: a hit caches its parsed source.
+     */
+    private BulkRequestBuilder buildBulk() {
+        final BulkRequestBuilder bulk = client.prepareBulk();
+        for (int i = 0; i < sources.length; i++) {
+            final InternalSearchHit hit = new InternalSearchHit(i, String.valueOf(i + 1), new StringText(TYPE), null);
+            hit.sourceRef(sources[i]);
+            hit.version(1);
+            final IndexRequest request = migration.copyRequest(targetName, hit, transformer);
+            if (request != null) {
+                bulk.add(request);
+            }
+        }
+        return bulk;
+    }
+
+    @Benchmark
+    public long build() {
+        // What BulkIndexer checks after every add
+        return buildBulk().request().estimatedSizeInBytes();
+    }
+
+    @Benchmark
+    public int buildAndEncode() throws IOException {
+        final BytesStreamOutput output = new BytesStreamOutput();
+        buildBulk().request().writeTo(output);
+        return output.size();
+    }
+}
@@ -1,17 +1,23 @@
 package org.diveintojee.poc.digitaloceancluster.app1;
 
+import org.apache.tomcat.jdbc.pool.DataSource;
 import org.flywaydb.core.Flyway;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.jdbc.core.JdbcTemplate;
-import org.springframework.jdbc.datasource.SimpleDriverDataSource;
-
-import java.sql.Driver;
+import org.springframework.util.StringUtils;
 
 @Configuration
 public class DbMigrationConfiguration {
 
+    /**
+     * Connector/J settings, applied to MySQL URLs only: server-side prepared statements cached per connection, and
+     * JDBC batches rewritten as multi-row inserts.
+     */
+    private static final String MYSQL_CONNECTION_PROPERTIES = "useServerPrepStmts=true;cachePrepStmts=true;"
+            + "prepStmtCacheSize=250;prepStmtCacheSqlLimit=2048;rewriteBatchedStatements=true";
+
     @Value("${datasource.driverClassName}")
     private String driverClassName;
     @Value("${datasource.username}")
@@ -20,19 +26,55 @@ public class DbMigrationConfiguration {
     private String password;
     @Value("${datasource.url}")
     private String url;
+    // Overrides the MySQL defaults, e.g. to tune the statement cache size
+    @Value("${datasource.pool.connection-properties:}")
+    private String connectionProperties;
+    // Flyway works on one connection, plus one for its metadata table
+    @Value("${datasource.pool.min-idle:1}")
+    private int minIdle;
+    @Value("${datasource.pool.max-active:4}")
+    private int maxActive;
+    // Unlike the api, no caller is waiting: wait longer rather than fail
+    @Value("${datasource.pool.max-wait-millis:30000}")
+    private int maxWaitMillis;
+    @Value("${datasource.pool.validation-query:SELECT 1}")
+    private String validationQuery;
+    @Value("${datasource.pool.validation-interval-millis:30000}")
+    private long validationIntervalMillis;
+    // Long DDL statements hold their connection for a while before being suspected of leaking it
+    @Value("${datasource.pool.suspect-timeout-seconds:600}")
+    private int suspectTimeoutSeconds;
 
-    @Bean
-    public SimpleDriverDataSource dataSource() throws ClassNotFoundException {
-        SimpleDriverDataSource dataSource = new SimpleDriverDataSource();
-        dataSource.setDriverClass((Class<? extends Driver>) Class.forName(driverClassName));
+    @Bean(destroyMethod = "close")
+    public DataSource dataSource() {
+        DataSource dataSource = new DataSource();
+        dataSource.setDriverClassName(driverClassName);
         dataSource.setUsername(userName);
         dataSource.setUrl(url);
         dataSource.setPassword(password);
+        if (StringUtils.hasText(connectionProperties)) {
+            dataSource.setConnectionProperties(connectionProperties);
+        } else if (url.startsWith("jdbc:mysql:")) {
+            dataSource.setConnectionProperties(MYSQL_CONNECTION_PROPERTIES);
+        }
+        dataSource.setInitialSize(minIdle);
+        dataSource.setMinIdle(minIdle);
+        dataSource.setMaxIdle(maxActive);
+        dataSource.setMaxActive(maxActive);
+        dataSource.setMaxWait(maxWaitMillis);
+        dataSource.setTestOnBorrow(true);
+        dataSource.setValidationQuery(validationQuery);
+        dataSource.setValidationInterval(validationIntervalMillis);
+        dataSource.setLogAbandoned(true);
+        dataSource.setSuspectTimeout(suspectTimeoutSeconds);
+        // The leak timer restarts on every statement: only connections held without being used are suspected
+        dataSource.setJdbcInterceptors("ConnectionState;StatementFinalizer;ResetAbandonedTimer");
+        dataSource.setJmxEnabled(true);
         return dataSource;
     }
 
     @Bean
-    public Flyway flyway() throws ClassNotFoundException {
+    public Flyway flyway() {
         Flyway flyway = new Flyway();
         flyway.setLocations("migrations");
         flyway.setDataSource(dataSource());
@@ -40,7 +82,7 @@ public class DbMigrationConfiguration {
     }
 
     @Bean
-    public JdbcTemplate jdbcTemplate() throws ClassNotFoundException {
+    public JdbcTemplate jdbcTemplate() {
         return new JdbcTemplate(dataSource());
     }
 }
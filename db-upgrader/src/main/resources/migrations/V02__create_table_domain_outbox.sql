@@ -0,0 +1,8 @@
+CREATE TABLE domain_outbox (
+  id BIGINT AUTO_INCREMENT primary key NOT NULL,
+  domain_id INT NOT NULL,
+  operation VARCHAR(10) NOT NULL,
+  created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE INDEX domain_outbox_created_at ON domain_outbox (created_at);
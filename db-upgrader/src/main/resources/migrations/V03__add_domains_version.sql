@@ -0,0 +1 @@
+ALTER TABLE domains ADD COLUMN version BIGINT NOT NULL DEFAULT 0;
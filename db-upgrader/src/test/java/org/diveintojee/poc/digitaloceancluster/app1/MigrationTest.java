@@ -1,6 +1,7 @@
 package org.diveintojee.poc.digitaloceancluster.app1;
 
 import org.apache.commons.lang.RandomStringUtils;
+import org.apache.tomcat.jdbc.pool.DataSource;
 import org.diveintojee.poc.digitaloceancluster.app1.domain.Domain;
 import org.junit.Assert;
 import org.junit.Test;
@@ -19,9 +20,11 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 @RunWith(SpringJUnit4ClassRunner.class)
 @SpringApplicationConfiguration(classes = DbMigrationApplication.class)
 public class MigrationTest {
@@ -32,6 +35,9 @@ public class MigrationTest {
     @Autowired
     private JdbcTemplate jdbcTemplate;
 
+    @Autowired
+    private DataSource dataSource;
+
 	@Test
 	public void migrationShouldSucceed() {
 		underTest.migrate();
@@ -63,6 +69,46 @@ public class MigrationTest {
 
 	}
 
+	@Test
+	public void outboxMigrationShouldSucceed() {
+		underTest.migrate();
+
+		// Create
+		jdbcTemplate.update("insert into domain_outbox (domain_id, operation) values (?, ?)", 1L, "INDEX");
+		// Read
+		final Long id = jdbcTemplate.queryForObject("select max(id) from domain_outbox where domain_id = ?", Long.class, 1L);
+		assertNotNull(id);
+		assertNotNull(jdbcTemplate.queryForObject("select created_at from domain_outbox where id = ?", Timestamp.class, id));
+		// Delete
+		assertEquals(1, jdbcTemplate.update("delete from domain_outbox where id = ?", id));
+	}
+
+	@Test
+	public void versionMigrationShouldSucceed() {
+		underTest.migrate();
+
+		final Domain domain = new Domain();
+		domain.setTitle(RandomStringUtils.randomAlphanumeric(Domain.TITLE_MAX_SIZE));
+		Long id = createDomain(domain);
+		// New rows start at version 0
+		assertEquals(Long.valueOf(0), jdbcTemplate.queryForObject("select version from domains where id = ?", Long.class, id));
+		// Optimistic update
+		String query = "update domains set title = ?, version = version + 1 where id = ? and version = ?";
+		assertEquals(1, jdbcTemplate.update(query, "updated", id, 0L));
+		// Lost update
+		assertEquals(0, jdbcTemplate.update(query, "lost", id, 0L));
+		deleteDomain(id);
+	}
+
+	@Test
+	public void migrationShouldReturnPooledConnections() {
+		underTest.migrate();
+		jdbcTemplate.queryForObject("select count(*) from domains", Long.class);
+
+		assertEquals(0, dataSource.getActive());
+		assertTrue(dataSource.getSize() <= dataSource.getMaxActive());
+	}
+
 	private void deleteDomain(Long id) {
 		String query = "delete from domains where id = ?";
 		Object[] args = new Object[] {id};
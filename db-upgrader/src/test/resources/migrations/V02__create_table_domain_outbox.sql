@@ -0,0 +1,10 @@
+CREATE TABLE domain_outbox (
+  id BIGINT NOT NULL AUTO_INCREMENT,
+  domain_id INT NOT NULL,
+  operation VARCHAR(10) NOT NULL,
+  created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+ALTER TABLE domain_outbox ADD PRIMARY KEY (id);
+
+CREATE INDEX domain_outbox_created_at ON domain_outbox (created_at);
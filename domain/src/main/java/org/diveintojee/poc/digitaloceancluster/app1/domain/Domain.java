@@ -30,6 +30,13 @@ public class Domain implements Serializable {
     @Size(max = DESCRIPTION_MAX_SIZE)
     private String description;
 
+    /**
+     * Optimistic lock, incremented by every update. Not part of equality.
+     */
+    @Version
+    @Column(nullable = false)
+    private Long version;
+
     public Long getId() {
         return id;
     }
@@ -54,6 +61,14 @@ public class Domain implements Serializable {
         this.description = description;
     }
 
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -82,6 +97,7 @@ public class Domain implements Serializable {
                 .add("id", id)
                 .add("title", title)
                 .add("description", description)
+                .add("version", version)
                 .toString();
     }
 }
@@ -0,0 +1,61 @@
+package org.diveintojee.poc.digitaloceancluster.app1.domain;
+
+import com.google.common.base.Objects;
+
+import java.io.Serializable;
+
+/**
+ * One item of a multi-get: the domain if found, null otherwise.
+ *
+ * @author louis.gueye@gmail.com
+ */
+public class DomainLookup implements Serializable {
+
+    private Long id;
+
+    private boolean found;
+
+    private Domain domain;
+
+    public DomainLookup() {
+    }
+
+    public DomainLookup(Long id, Domain domain) {
+        this.id = id;
+        this.found = domain != null;
+        this.domain = domain;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public boolean isFound() {
+        return found;
+    }
+
+    public void setFound(boolean found) {
+        this.found = found;
+    }
+
+    public Domain getDomain() {
+        return domain;
+    }
+
+    public void setDomain(Domain domain) {
+        this.domain = domain;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("id", id)
+                .add("found", found)
+                .add("domain", domain)
+                .toString();
+    }
+}
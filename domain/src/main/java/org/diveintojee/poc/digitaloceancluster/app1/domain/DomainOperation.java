@@ -0,0 +1,78 @@
+package org.diveintojee.poc.digitaloceancluster.app1.domain;
+
+import com.google.common.base.Objects;
+
+import java.io.Serializable;
+
+/**
+ * One item of a bulk request: creates, updates or deletes a {@link Domain}.
+ *
+ * @author louis.gueye@gmail.com
+ */
+public class DomainOperation implements Serializable {
+
+    public enum Action {
+        CREATE, UPDATE, DELETE
+    }
+
+    private Action action;
+
+    private Long id;
+
+    private Domain domain;
+
+    public static DomainOperation create(Domain domain) {
+        DomainOperation operation = new DomainOperation();
+        operation.setAction(Action.CREATE);
+        operation.setDomain(domain);
+        return operation;
+    }
+
+    public static DomainOperation update(Long id, Domain domain) {
+        DomainOperation operation = new DomainOperation();
+        operation.setAction(Action.UPDATE);
+        operation.setId(id);
+        operation.setDomain(domain);
+        return operation;
+    }
+
+    public static DomainOperation delete(Long id) {
+        DomainOperation operation = new DomainOperation();
+        operation.setAction(Action.DELETE);
+        operation.setId(id);
+        return operation;
+    }
+
+    public Action getAction() {
+        return action;
+    }
+
+    public void setAction(Action action) {
+        this.action = action;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Domain getDomain() {
+        return domain;
+    }
+
+    public void setDomain(Domain domain) {
+        this.domain = domain;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("action", action)
+                .add("id", id)
+                .add("domain", domain)
+                .toString();
+    }
+}
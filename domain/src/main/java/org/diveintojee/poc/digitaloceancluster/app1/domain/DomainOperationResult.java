@@ -0,0 +1,89 @@
+package org.diveintojee.poc.digitaloceancluster.app1.domain;
+
+import com.google.common.base.Objects;
+
+import java.io.Serializable;
+
+/**
+ * Outcome of one item of a bulk request. Status codes follow their single-item HTTP counterparts: 201 for a created
+ * domain, 200 for an updated or deleted one, 404 for a missing one, 400 for an invalid item.
+ *
+ * @author louis.gueye@gmail.com
+ */
+public class DomainOperationResult implements Serializable {
+
+    private int index;
+
+    private DomainOperation.Action action;
+
+    private Long id;
+
+    private int status;
+
+    private String error;
+
+    public DomainOperationResult() {
+    }
+
+    public DomainOperationResult(int index, DomainOperation.Action action, Long id, int status, String error) {
+        this.index = index;
+        this.action = action;
+        this.id = id;
+        this.status = status;
+        this.error = error;
+    }
+
+    /**
+     * @return position of the item in the bulk request
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
+    public DomainOperation.Action getAction() {
+        return action;
+    }
+
+    public void setAction(DomainOperation.Action action) {
+        this.action = action;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public void setStatus(int status) {
+        this.status = status;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("index", index)
+                .add("action", action)
+                .add("id", id)
+                .add("status", status)
+                .add("error", error)
+                .toString();
+    }
+}
@@ -0,0 +1,51 @@
+package org.diveintojee.poc.digitaloceancluster.app1.domain;
+
+import com.google.common.base.Objects;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * One page of domains, ordered by id. {@link #getCursor()} is an opaque token fetching the next page, null on the last
+ * one.
+ *
+ * @author louis.gueye@gmail.com
+ */
+public class DomainPage implements Serializable {
+
+    private List<Domain> items;
+
+    private String cursor;
+
+    public DomainPage() {
+    }
+
+    public DomainPage(List<Domain> items, String cursor) {
+        this.items = items;
+        this.cursor = cursor;
+    }
+
+    public List<Domain> getItems() {
+        return items;
+    }
+
+    public void setItems(List<Domain> items) {
+        this.items = items;
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("items", items == null ? 0 : items.size())
+                .add("cursor", cursor)
+                .toString();
+    }
+}
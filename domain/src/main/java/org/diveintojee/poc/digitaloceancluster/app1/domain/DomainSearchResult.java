@@ -0,0 +1,75 @@
+package org.diveintojee.poc.digitaloceancluster.app1.domain;
+
+import com.google.common.base.Objects;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * One page of search hits. {@link #getTotal()} counts every matching domain, {@link #getItems()} holds at most the
+ * requested page size, their fields restricted to the requested ones.
+ *
+ * @author louis.gueye@gmail.com
+ */
+public class DomainSearchResult implements Serializable {
+
+    private long total;
+
+    private long tookMs;
+
+    private int from;
+
+    private List<Domain> items;
+
+    public DomainSearchResult() {
+    }
+
+    public DomainSearchResult(long total, long tookMs, int from, List<Domain> items) {
+        this.total = total;
+        this.tookMs = tookMs;
+        this.from = from;
+        this.items = items;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public void setTotal(long total) {
+        this.total = total;
+    }
+
+    public long getTookMs() {
+        return tookMs;
+    }
+
+    public void setTookMs(long tookMs) {
+        this.tookMs = tookMs;
+    }
+
+    public int getFrom() {
+        return from;
+    }
+
+    public void setFrom(int from) {
+        this.from = from;
+    }
+
+    public List<Domain> getItems() {
+        return items;
+    }
+
+    public void setItems(List<Domain> items) {
+        this.items = items;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("total", total)
+                .add("tookMs", tookMs)
+                .add("from", from)
+                .add("items", items == null ? 0 : items.size())
+                .toString();
+    }
+}
@@ -0,0 +1,334 @@
+package org.diveintojee.poc.digitaloceancluster.app1;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.rest.RestStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Streams index and delete requests to a target index. Requests are buffered and sent as a bulk request every
+ * {@link MigrationSettings#getBulkActions()} documents or {@link MigrationSettings#getBulkSizeInBytes()} bytes,
+ * whichever comes first. At most {@link MigrationSettings#getConcurrentRequests()} bulk requests are in flight:
+ * {@link #add(IndexRequest)} blocks the caller until one completes, so memory stays flat whatever the source size.
+ * <p/>
+ * Results are handled per item. Version conflicts are not failures: the target already holds a newer version of the
+ * document. Rejected items (full bulk queue) are retried in smaller batches with exponential backoff and jitter, up to
+ * {@link MigrationSettings#getBulkMaxRetries()} times. Other failures are written to the {@link DeadLetterFile}; the
+ * indexer fails once it holds more than {@link MigrationSettings#getMaxFailures()} documents. A failed indexer refuses
+ * new requests and drops pending retries, so that the copy stops at the first failure.
+ *
+ * @author louis.gueye@gmail.com
+ */
+public class BulkIndexer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BulkIndexer.class);
+
+    private final Client client;
+    private final String targetName;
+    private final MigrationSettings settings;
+    private final int bulkActions;
+    private final long bulkSizeInBytes;
+    private final Semaphore inFlight;
+    private final DeadLetterFile deadLetters;
+
+    private final AtomicLong indexed = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private BulkRequestBuilder bulkRequestBuilder;
+    private ScheduledExecutorService retryScheduler;
+    private int pending;
+    private volatile String failure;
+
+    public BulkIndexer(Client client, String targetName, MigrationSettings settings) {
+        this(client, targetName, settings, new Semaphore(settings.getConcurrentRequests()));
+    }
+
+    /**
+     * @param inFlight permits shared by every indexer writing to the same cluster
+     */
+    public BulkIndexer(Client client, String targetName, MigrationSettings settings, Semaphore inFlight) {
+        this(client, targetName, settings, inFlight, new DeadLetterFile(settings.getDeadLetterDirectory(), targetName));
+    }
+
+    /**
+     * @param deadLetters shared by every indexer writing to the same target, so is the failure budget
+     */
+    public BulkIndexer(Client client, String targetName, MigrationSettings settings, Semaphore inFlight, DeadLetterFile deadLetters) {
+        this.client = client;
+        this.targetName = targetName;
+        this.settings = settings;
+        this.bulkActions = settings.getBulkActions();
+        this.bulkSizeInBytes = settings.getBulkSizeInBytes();
+        this.inFlight = inFlight;
+        this.deadLetters = deadLetters;
+    }
+
+    /**
+     * @throws IllegalStateException if the indexer already failed: the rest of the copy would be written for nothing
+     */
+    public void add(IndexRequest request) throws InterruptedException {
+        checkFailure();
+        BulkRequestBuilder full;
+        synchronized (this) {
+            buffer().add(request);
+            full = takeIfFull();
+        }
+        if (full != null) {
+            execute(full, 0);
+        }
+    }
+
+    /**
+     * @throws IllegalStateException if the indexer already failed
+     */
+    public void add(DeleteRequest request) throws InterruptedException {
+        checkFailure();
+        BulkRequestBuilder full;
+        synchronized (this) {
+            buffer().add(request);
+            full = takeIfFull();
+        }
+        if (full != null) {
+            execute(full, 0);
+        }
+    }
+
+    private BulkRequestBuilder buffer() {
+        if (bulkRequestBuilder == null) {
+            bulkRequestBuilder = client.prepareBulk();
+        }
+        return bulkRequestBuilder;
+    }
+
+    private BulkRequestBuilder takeIfFull() {
+        if (bulkRequestBuilder.numberOfActions() < bulkActions
+                && bulkRequestBuilder.request().estimatedSizeInBytes() < bulkSizeInBytes) {
+            return null;
+        }
+        final BulkRequestBuilder full = bulkRequestBuilder;
+        bulkRequestBuilder = null;
+        return full;
+    }
+
+    public void flush() throws InterruptedException {
+        BulkRequestBuilder partial;
+        synchronized (this) {
+            partial = bulkRequestBuilder;
+            bulkRequestBuilder = null;
+        }
+        // Once failed, buffered requests are dropped
+        if (partial != null && partial.numberOfActions() > 0 && failure == null) {
+            execute(partial, 0);
+        }
+    }
+
+    /**
+     * Flushes buffered requests and waits for every in-flight bulk request sent by this indexer, retries included.
+     *
+     * @throws IllegalStateException if the failure budget is exhausted or a bulk request failed as a whole
+     */
+    public void close() throws InterruptedException {
+        flush();
+        synchronized (this) {
+            while (pending > 0) {
+                wait();
+            }
+            if (retryScheduler != null) {
+                retryScheduler.shutdown();
+            }
+        }
+        checkFailure();
+    }
+
+    /**
+     * Also fails when indexers sharing the dead letters exhausted the budget, so that every partition stops.
+     */
+    private void checkFailure() {
+        if (failure == null) {
+            checkBudget();
+        }
+        if (failure != null) {
+            throw new IllegalStateException("Failed to bulk index target index '" + targetName + "': " + failure);
+        }
+    }
+
+    public long getIndexed() {
+        return indexed.get();
+    }
+
+    public long getRetried() {
+        return retried.get();
+    }
+
+    private void execute(final BulkRequestBuilder bulk, final int attempt) throws InterruptedException {
+        inFlight.acquire();
+        begin();
+        try {
+            bulk.execute(new ActionListener<BulkResponse>() {
+                @Override
+                public void onResponse(BulkResponse response) {
+                    try {
+                        handle(bulk.request().requests(), response, attempt);
+                    } finally {
+                        inFlight.release();
+                        end();
+                    }
+                }
+
+                @Override
+                public void onFailure(Throwable e) {
+                    try {
+                        if (isRejection(e) && attempt < settings.getBulkMaxRetries()) {
+                            scheduleRetry(bulk.request().requests(), attempt + 1);
+                        } else {
+                            failure = String.valueOf(e);
+                        }
+                    } finally {
+                        inFlight.release();
+                        end();
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.release();
+            end();
+            throw e;
+        }
+    }
+
+    private void handle(List<ActionRequest> requests, BulkResponse response, int attempt) {
+        int succeeded = 0;
+        List<ActionRequest> rejected = Lists.newArrayList();
+        for (BulkItemResponse item : response.getItems()) {
+            if (!item.isFailed()) {
+                succeeded++;
+                continue;
+            }
+            final RestStatus status = item.getFailure().getStatus();
+            if (status == RestStatus.CONFLICT) {
+                // A version conflict means the target already holds a newer version of the document
+                continue;
+            }
+            final ActionRequest request = requests.get(item.getItemId());
+            if (isRejection(status, item.getFailureMessage()) && attempt < settings.getBulkMaxRetries()) {
+                rejected.add(request);
+            } else {
+                deadLetter(request, status, item.getFailureMessage());
+            }
+        }
+        indexed.addAndGet(succeeded);
+        LOG.debug("Indexed {} documents in '{}' ({} so far)", succeeded, targetName, indexed.get());
+        if (!rejected.isEmpty()) {
+            scheduleRetry(rejected, attempt + 1);
+        }
+    }
+
+    private void deadLetter(ActionRequest request, RestStatus status, String reason) {
+        try {
+            deadLetters.write(request, status.getStatus(), reason);
+        } catch (IOException e) {
+            failure = "Failed to write dead letter to '" + deadLetters.getFile() + "': " + e;
+            return;
+        }
+        LOG.warn("Document rejected by '{}' ({}): {}", targetName, status, reason);
+        checkBudget();
+    }
+
+    private void checkBudget() {
+        final long failures = deadLetters.getCount();
+        if (failures > settings.getMaxFailures()) {
+            failure = failures + " failed document(s), over the budget of " + settings.getMaxFailures()
+                    + ", see '" + deadLetters.getFile() + "'";
+        }
+    }
+
+    /**
+     * Retries rejected requests after an exponential, jittered delay, split in two batches to relieve the target.
+     */
+    private void scheduleRetry(final List<ActionRequest> requests, final int attempt) {
+        if (failure != null) {
+            LOG.debug("Not retrying {} rejected document(s) in '{}', indexing already failed", requests.size(), targetName);
+            return;
+        }
+        final long backoff = Math.min(settings.getBulkMaxBackoffMillis(),
+                settings.getBulkInitialBackoffMillis() << Math.min(attempt - 1, 30));
+        final long delay = ThreadLocalRandom.current().nextLong(backoff / 2, backoff + 1);
+        retried.addAndGet(requests.size());
+        LOG.info("Retrying {} rejected document(s) in '{}' in {} ms (attempt {})", requests.size(), targetName, delay, attempt);
+        begin();
+        scheduler().schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final int batchSize = Math.max(1, (requests.size() + 1) / 2);
+                    for (List<ActionRequest> batch : Lists.partition(requests, batchSize)) {
+                        if (failure != null) {
+                            break;
+                        }
+                        BulkRequestBuilder builder = client.prepareBulk();
+                        for (ActionRequest request : batch) {
+                            if (request instanceof IndexRequest) {
+                                builder.add((IndexRequest) request);
+                            } else if (request instanceof DeleteRequest) {
+                                builder.add((DeleteRequest) request);
+                            }
+                        }
+                        execute(builder, attempt);
+                    }
+                } catch (InterruptedException e) {
+                    failure = "Interrupted while retrying rejected documents";
+                    Thread.currentThread().interrupt();
+                } catch (RuntimeException e) {
+                    failure = String.valueOf(e);
+                } finally {
+                    end();
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized ScheduledExecutorService scheduler() {
+        if (retryScheduler == null) {
+            retryScheduler = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("bulk-retry-" + targetName + "-%d").setDaemon(true).build());
+        }
+        return retryScheduler;
+    }
+
+    static boolean isRejection(RestStatus status, String message) {
+        return status == RestStatus.TOO_MANY_REQUESTS
+                || (message != null && message.contains(EsRejectedExecutionException.class.getSimpleName()));
+    }
+
+    static boolean isRejection(Throwable e) {
+        return ExceptionsHelper.unwrapCause(e) instanceof EsRejectedExecutionException;
+    }
+
+    private synchronized void begin() {
+        pending++;
+    }
+
+    private synchronized void end() {
+        pending--;
+        notifyAll();
+    }
+}
@@ -0,0 +1,117 @@
+package org.diveintojee.poc.digitaloceancluster.app1;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Progress of a {@link Migration}: the partition plan of its source, the partitions already copied to its target
+ * and the number of documents they held.
+ * <p/>
+ * Progress is recorded per partition, not per document: scan scrolls return hits in no particular order, so there is
+ * no position to resume a partition from. A partition interrupted mid-copy is copied again from its start on resume;
+ * documents it already wrote are rejected as version conflicts and skipped. The work redone is therefore bounded by the
+ * partition size: one shard of a multi-shard index, one of {@link MigrationSettings#getRangePartitions()} ranges of a
+ * single-shard one, and the whole index when it has a single {@code all} partition (range partitioning disabled,
+ * partition field unmapped or index empty).
+ *
+ * @author louis.gueye@gmail.com
+ */
+public class Checkpoint implements Serializable {
+
+    public enum Phase {
+        /** Target is being filled, the alias still points to the source */
+        COPYING,
+        /** Alias points to the target, only the source deletion is left */
+        SWITCHED
+    }
+
+    private String source;
+    private String target;
+    private Phase phase = Phase.COPYING;
+    private List<String> partitions = Lists.newArrayList();
+    private Set<String> completed = Sets.newLinkedHashSet();
+    private long documents;
+    private long copyStartedAt;
+
+    public Checkpoint(String source, String target) {
+        this.source = source;
+        this.target = target;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    public synchronized Phase getPhase() {
+        return phase;
+    }
+
+    public synchronized void setPhase(Phase phase) {
+        this.phase = phase;
+    }
+
+    public synchronized List<String> getPartitions() {
+        return Lists.newArrayList(partitions);
+    }
+
+    public synchronized void setPartitions(List<String> partitions) {
+        this.partitions = Lists.newArrayList(partitions);
+    }
+
+    public synchronized Set<String> getCompleted() {
+        return Sets.newLinkedHashSet(completed);
+    }
+
+    public synchronized boolean isCompleted(String partition) {
+        return completed.contains(partition);
+    }
+
+    public synchronized long getDocuments() {
+        return documents;
+    }
+
+    /**
+     * @return epoch millis at which the copy started, changes made afterwards are replayed by the catch-up pass
+     */
+    public synchronized long getCopyStartedAt() {
+        return copyStartedAt;
+    }
+
+    public synchronized void setCopyStartedAt(long copyStartedAt) {
+        this.copyStartedAt = copyStartedAt;
+    }
+
+    public synchronized void complete(String partition, long documents) {
+        if (this.completed.add(partition)) {
+            this.documents += documents;
+        }
+    }
+
+    synchronized void restore(Phase phase, Set<String> completed, long documents) {
+        this.phase = phase;
+        this.completed = Sets.newLinkedHashSet(completed);
+        this.documents = documents;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return Objects.toStringHelper(this)
+                .add("source", source)
+                .add("target", target)
+                .add("phase", phase)
+                .add("partitions", partitions.size())
+                .add("completed", completed.size())
+                .add("documents", documents)
+                .add("copyStartedAt", copyStartedAt)
+                .toString();
+    }
+}
@@ -0,0 +1,88 @@
+package org.diveintojee.poc.digitaloceancluster.app1;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * Stores one {@link Checkpoint} per target index as a properties file in a local directory.
+ * Files are replaced atomically so that a crash never leaves a truncated checkpoint behind.
+ *
+ * @author louis.gueye@gmail.com
+ */
+public class CheckpointRepository {
+
+    private static final String SOURCE = "source";
+    private static final String TARGET = "target";
+    private static final String PHASE = "phase";
+    private static final String PARTITIONS = "partitions";
+    private static final String COMPLETED = "completed";
+    private static final String DOCUMENTS = "documents";
+    private static final String COPY_STARTED_AT = "copyStartedAt";
+
+    private static final Joiner JOINER = Joiner.on(',');
+    private static final Splitter SPLITTER = Splitter.on(',').omitEmptyStrings();
+
+    private final Path directory;
+
+    public CheckpointRepository(String directory) {
+        this.directory = Paths.get(directory);
+    }
+
+    public synchronized Checkpoint load(String target) throws IOException {
+        final Path file = file(target);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file, Charsets.UTF_8)) {
+            properties.load(reader);
+        }
+        Checkpoint checkpoint = new Checkpoint(Strings.emptyToNull(properties.getProperty(SOURCE)), properties.getProperty(TARGET));
+        checkpoint.setPartitions(Lists.newArrayList(SPLITTER.split(properties.getProperty(PARTITIONS, ""))));
+        checkpoint.restore(Checkpoint.Phase.valueOf(properties.getProperty(PHASE)),
+                Sets.newLinkedHashSet(SPLITTER.split(properties.getProperty(COMPLETED, ""))),
+                Long.parseLong(properties.getProperty(DOCUMENTS, "0")));
+        checkpoint.setCopyStartedAt(Long.parseLong(properties.getProperty(COPY_STARTED_AT, "0")));
+        return checkpoint;
+    }
+
+    public synchronized void save(Checkpoint checkpoint) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(SOURCE, Strings.nullToEmpty(checkpoint.getSource()));
+        properties.setProperty(TARGET, checkpoint.getTarget());
+        properties.setProperty(PHASE, checkpoint.getPhase().name());
+        properties.setProperty(PARTITIONS, JOINER.join(checkpoint.getPartitions()));
+        properties.setProperty(COMPLETED, JOINER.join(checkpoint.getCompleted()));
+        properties.setProperty(DOCUMENTS, String.valueOf(checkpoint.getDocuments()));
+        properties.setProperty(COPY_STARTED_AT, String.valueOf(checkpoint.getCopyStartedAt()));
+
+        Files.createDirectories(directory);
+        final Path file = file(checkpoint.getTarget());
+        final Path tmp = directory.resolve(file.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tmp, Charsets.UTF_8)) {
+            properties.store(writer, "Migration of '" + checkpoint.getTarget() + "'");
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public synchronized void delete(String target) throws IOException {
+        Files.deleteIfExists(file(target));
+    }
+
+    private Path file(String target) {
+        return directory.resolve(target + ".properties");
+    }
+}
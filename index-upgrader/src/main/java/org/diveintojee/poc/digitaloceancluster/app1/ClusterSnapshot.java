@@ -0,0 +1,133 @@
+package org.diveintojee.poc.digitaloceancluster.app1;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.metadata.MappingMetaData;
+import org.elasticsearch.cluster.metadata.MetaData;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable view of the indices, aliases, shard counts and mappings of a cluster, taken from a single cluster state
+ * request. Obtained through {@link ClusterStateCache}.
+ *
+ * @author louis.gueye@gmail.com
+ */
+public class ClusterSnapshot {
+
+    private final Map<String, Integer> shards;
+    private final Map<String, Set<String>> aliases;
+    private final Map<String, Map<String, MappingMetaData>> mappings;
+
+    ClusterSnapshot(Map<String, Integer> shards, Map<String, Set<String>> aliases, Map<String, Map<String, MappingMetaData>> mappings) {
+        this.shards = ImmutableMap.copyOf(shards);
+        this.aliases = ImmutableMap.copyOf(aliases);
+        this.mappings = ImmutableMap.copyOf(mappings);
+    }
+
+    public static ClusterSnapshot of(MetaData metaData) {
+        Map<String, Integer> shards = Maps.newHashMap();
+        Map<String, Set<String>> aliases = Maps.newHashMap();
+        Map<String, Map<String, MappingMetaData>> mappings = Maps.newHashMap();
+        final Iterator<IndexMetaData> indices = metaData.indices().valuesIt();
+        while (indices.hasNext()) {
+            final IndexMetaData index = indices.next();
+            shards.put(index.getIndex(), index.getNumberOfShards());
+            final Iterator<String> indexAliases = index.getAliases().keysIt();
+            while (indexAliases.hasNext()) {
+                final String alias = indexAliases.next();
+                if (!aliases.containsKey(alias)) {
+                    aliases.put(alias, Sets.<String>newHashSet());
+                }
+                aliases.get(alias).add(index.getIndex());
+            }
+            Map<String, MappingMetaData> indexMappings = Maps.newHashMap();
+            final Iterator<MappingMetaData> types = index.getMappings().valuesIt();
+            while (types.hasNext()) {
+                final MappingMetaData type = types.next();
+                indexMappings.put(type.type(), type);
+            }
+            mappings.put(index.getIndex(), indexMappings);
+        }
+        return new ClusterSnapshot(shards, aliases, mappings);
+    }
+
+    public boolean exists(String index) {
+        return shards.containsKey(index);
+    }
+
+    public Set<String> getIndices() {
+        return shards.keySet();
+    }
+
+    /**
+     * @return indices the alias points to, empty if the alias does not exist
+     */
+    public Set<String> getIndices(String alias) {
+        final Set<String> indices = aliases.get(alias);
+        return indices == null ? Collections.<String>emptySet() : ImmutableSet.copyOf(indices);
+    }
+
+    /**
+     * @param name name of a declared index version
+     * @return the most recent generation of that version recreated by a purge ({@code <name>-<generation>}), null if
+     * none exists
+     */
+    public Long findGeneration(String name) {
+        return findGeneration(name, shards.keySet());
+    }
+
+    /**
+     * A purge creates the new generation, moves the alias onto it and deletes the previous one, so both may exist when
+     * the delete is pending or failed: the alias tells which one is live. Without the alias, the latest generation is.
+     *
+     * @param alias alias of the declared index version
+     * @param name  name of the declared index version
+     * @return the live generation of that version, null if it was never purged or if its original index is still live
+     */
+    public Long findLiveGeneration(String alias, String name) {
+        final Set<String> aliased = getIndices(alias);
+        if (aliased.contains(name)) return null;
+        final Long generation = findGeneration(name, aliased);
+        return generation != null ? generation : findGeneration(name);
+    }
+
+    private static Long findGeneration(String name, Set<String> indices) {
+        final String prefix = name + Index.GENERATION_SEPARATOR;
+        Long generation = null;
+        for (String index : indices) {
+            if (!index.startsWith(prefix)) continue;
+            try {
+                final long candidate = Long.parseLong(index.substring(prefix.length()));
+                generation = generation == null ? candidate : Math.max(generation, candidate);
+            } catch (NumberFormatException e) {
+                // Not a generation, another version sharing the prefix
+            }
+        }
+        return generation;
+    }
+
+    public int getNumberOfShards(String index) {
+        return shards.get(checkExists(index));
+    }
+
+    /**
+     * @return mappings of the index, keyed by type
+     */
+    public Map<String, MappingMetaData> getMappings(String index) {
+        return ImmutableMap.copyOf(mappings.get(checkExists(index)));
+    }
+
+    private String checkExists(String index) {
+        if (!exists(index)) {
+            throw new IllegalStateException("Index '" + index + "' does not exist");
+        }
+        return index;
+    }
+}
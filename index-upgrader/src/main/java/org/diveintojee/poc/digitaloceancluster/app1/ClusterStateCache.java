@@ -0,0 +1,38 @@
+package org.diveintojee.poc.digitaloceancluster.app1;
+
+import org.elasticsearch.client.Client;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Holds the last {@link ClusterSnapshot} so that planning a migration costs one cluster state round trip whatever
+ * the number of versioned indices. Whoever creates, deletes or re-aliases an index must {@link #invalidate()} it.
+ *
+ * @author louis.gueye@gmail.com
+ */
+public class ClusterStateCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ClusterStateCache.class);
+
+    private final Client client;
+    private ClusterSnapshot snapshot;
+
+    public ClusterStateCache(Client client) {
+        this.client = client;
+    }
+
+    public synchronized ClusterSnapshot get() throws ExecutionException, InterruptedException {
+        if (snapshot == null) {
+            snapshot = ClusterSnapshot.of(client.admin().cluster().prepareState().clear().setMetaData(true)
+                    .execute().get().getState().getMetaData());
+            LOG.debug("Fetched cluster state: {} indices", snapshot.getIndices().size());
+        }
+        return snapshot;
+    }
+
+    public synchronized void invalidate() {
+        snapshot = null;
+    }
+}
@@ -0,0 +1,112 @@
+package org.diveintojee.poc.digitaloceancluster.app1;
+
+import com.google.common.base.Charsets;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Newline delimited JSON file collecting the documents a migration could not write to its target, one line per
+ * document with its id, the error reason and, for index requests, its source so that it can be replayed.
+ * The file is only created on the first failure. An existing file, left by an interrupted run of the same migration,
+ * is appended to and its lines count towards {@link #getCount()}: the failures of the partitions that run completed
+ * are not retried, they still belong to the migration and to its failure budget. A migration starting over
+ * {@link #rotate() rotates} the file instead.
+ *
+ * @author louis.gueye@gmail.com
+ */
+public class DeadLetterFile implements Closeable {
+
+    private final Path file;
+    private final AtomicLong count = new AtomicLong();
+    private Writer writer;
+
+    public DeadLetterFile(String directory, String target) {
+        this.file = Paths.get(directory).resolve(target + ".ndjson");
+        if (Files.exists(file)) {
+            count.set(countLines(file));
+        }
+    }
+
+    private static long countLines(Path file) {
+        try (BufferedReader reader = Files.newBufferedReader(file, Charsets.UTF_8)) {
+            long lines = 0;
+            while (reader.readLine() != null) {
+                lines++;
+            }
+            return lines;
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to read dead letters from '" + file + "'", e);
+        }
+    }
+
+    public synchronized void write(ActionRequest<?> request, int status, String reason) throws IOException {
+        XContentBuilder line = XContentFactory.jsonBuilder().startObject();
+        if (request instanceof IndexRequest) {
+            final IndexRequest indexRequest = (IndexRequest) request;
+            line.field("op", "index").field("index", indexRequest.index()).field("type", indexRequest.type())
+                    .field("id", indexRequest.id()).field("status", status).field("reason", reason)
+                    .rawField("source", indexRequest.source());
+        } else if (request instanceof DeleteRequest) {
+            final DeleteRequest deleteRequest = (DeleteRequest) request;
+            line.field("op", "delete").field("index", deleteRequest.index()).field("type", deleteRequest.type())
+                    .field("id", deleteRequest.id()).field("status", status).field("reason", reason);
+        } else {
+            line.field("op", request.getClass().getSimpleName()).field("status", status).field("reason", reason);
+        }
+        line.endObject();
+        if (writer == null) {
+            Files.createDirectories(file.getParent());
+            writer = Files.newBufferedWriter(file, Charsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+        writer.write(line.string());
+        writer.write('\n');
+        writer.flush();
+        count.incrementAndGet();
+    }
+
+    /**
+     * @return number of documents in the file, including those written by a previous run
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Sets the current file aside, suffixed with the current epoch millis, and starts counting from zero.
+     *
+     * @return the file set aside, null if there was none
+     */
+    public synchronized Path rotate() throws IOException {
+        close();
+        count.set(0);
+        if (!Files.exists(file)) return null;
+        final Path rotated = file.resolveSibling(file.getFileName() + "." + System.currentTimeMillis());
+        Files.move(file, rotated);
+        return rotated;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+}
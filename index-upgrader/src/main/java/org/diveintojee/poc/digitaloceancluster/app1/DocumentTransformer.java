@@ -0,0 +1,25 @@
+package org.diveintojee.poc.digitaloceancluster.app1;
+
+import java.util.Map;
+
+/**
+ * Rewrites documents while they are copied to a new index version. A version declares its transformer in
+ * {@code migrations/<alias>/vN/transformer.properties}:
+ * <pre>
+ * class=com.example.SplitNameTransformer
+ * </pre>
+ * Implementations need a public no-arg constructor and must be thread safe: partitions are copied in parallel.
+ * A version with a transformer is never skipped when an alias is several versions behind.
+ *
+ * @author louis.gueye@gmail.com
+ */
+public interface DocumentTransformer {
+
+    /**
+     * @param type   type of the document in the source index
+     * @param id     id of the document
+     * @param source source of the document as read from the source index
+     * @return the source to index in the target, null to leave the document out
+     */
+    Map<String, Object> transform(String type, String id, Map<String, Object> source);
+}
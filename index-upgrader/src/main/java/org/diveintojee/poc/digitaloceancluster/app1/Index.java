@@ -11,10 +11,17 @@ import java.util.Set;
  */
 public class Index implements Serializable, Comparable<Index> {
 
+	/**
+	 * Separates the name of a version from the generation of an index recreated empty by an api purge.
+	 */
+	public static final String GENERATION_SEPARATOR = "-";
+
 	private String alias;
 	private String version;
 	private String settings;
+	private String transformer;
 	private Set<Mapping> mappings = Sets.newHashSet();
+	private Long generation;
 
 	public String getAlias() {
 		return alias;
@@ -40,6 +47,28 @@ public class Index implements Serializable, Comparable<Index> {
 		this.settings = settings;
 	}
 
+	/**
+	 * @return class name of the {@link DocumentTransformer} applied to documents copied to this version, null if none
+	 */
+	public String getTransformer() {
+		return transformer;
+	}
+
+	public void setTransformer(String transformer) {
+		this.transformer = transformer;
+	}
+
+	public Long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * @param generation set when the physical index of this version was recreated by a purge, not part of equality
+	 */
+	public void setGeneration(Long generation) {
+		this.generation = generation;
+	}
+
 	public Set<Mapping> getMappings() {
 		return mappings;
 	}
@@ -75,6 +104,8 @@ public class Index implements Serializable, Comparable<Index> {
 				.add("alias", alias)
 				.add("version", version)
 				.add("settings", settings)
+				.add("transformer", transformer)
+				.add("generation", generation)
 				.add("mappings", mappings)
 				.toString();
 	}
@@ -85,6 +116,7 @@ public class Index implements Serializable, Comparable<Index> {
 	}
 
     public String getName() {
-        return alias + "_" + version;
+        final String name = alias + "_" + version;
+        return generation == null ? name : name + GENERATION_SEPARATOR + generation;
     }
 }
@@ -19,6 +19,48 @@ public class IndexMigrationConfiguration {
     private int transportPort;
     @Value("${elasticsearch.cluster.name}")
     private String clusterName;
+    @Value("${migration.bulk.actions:1000}")
+    private int bulkActions;
+    @Value("${migration.bulk.size-in-bytes:5242880}")
+    private long bulkSizeInBytes;
+    @Value("${migration.bulk.concurrent-requests:2}")
+    private int concurrentRequests;
+    @Value("${migration.scroll.size:200}")
+    private int scrollSize;
+    @Value("${migration.scroll.keep-alive-millis:60000}")
+    private long scrollKeepAliveMillis;
+    @Value("${migration.scroll.workers:0}")
+    private int scrollWorkers;
+    @Value("${migration.scroll.partition-field:id}")
+    private String partitionField;
+    @Value("${migration.scroll.range-partitions:16}")
+    private int rangePartitions;
+    @Value("${migration.checkpoint.directory:checkpoints}")
+    private String checkpointDirectory;
+    @Value("${migration.dual-write.enabled:false}")
+    private boolean dualWrite;
+    @Value("${migration.dual-write.propagation-millis:5000}")
+    private long dualWritePropagationMillis;
+    @Value("${migration.dual-write.catch-up-attempts:3}")
+    private int catchUpAttempts;
+    @Value("${migration.alias-concurrency:2}")
+    private int aliasConcurrency;
+    @Value("${migration.bulk-load.enabled:false}")
+    private boolean bulkLoad;
+    @Value("${migration.bulk-load.max-num-segments:1}")
+    private int bulkLoadMaxNumSegments;
+    @Value("${migration.bulk-load.green-timeout-millis:600000}")
+    private long bulkLoadGreenTimeoutMillis;
+    @Value("${migration.bulk.max-retries:5}")
+    private int bulkMaxRetries;
+    @Value("${migration.bulk.initial-backoff-millis:100}")
+    private long bulkInitialBackoffMillis;
+    @Value("${migration.bulk.max-backoff-millis:10000}")
+    private long bulkMaxBackoffMillis;
+    @Value("${migration.max-failures:0}")
+    private long maxFailures;
+    @Value("${migration.dead-letter.directory:dead-letters}")
+    private String deadLetterDirectory;
 
     @Bean
     public Client elasticsearchClient() throws ClassNotFoundException {
@@ -30,4 +72,33 @@ public class IndexMigrationConfiguration {
         }
         return client;
     }
+
+    @Bean
+    public MigrationSettings migrationSettings() {
+        MigrationSettings settings = new MigrationSettings();
+        settings.setBulkActions(bulkActions);
+        settings.setBulkSizeInBytes(bulkSizeInBytes);
+        settings.setConcurrentRequests(concurrentRequests);
+        settings.setScrollSize(scrollSize);
+        settings.setScrollKeepAliveMillis(scrollKeepAliveMillis);
+        if (scrollWorkers > 0) {
+            settings.setScrollWorkers(scrollWorkers);
+        }
+        settings.setPartitionField(partitionField);
+        settings.setRangePartitions(rangePartitions);
+        settings.setCheckpointDirectory(checkpointDirectory);
+        settings.setDualWrite(dualWrite);
+        settings.setDualWritePropagationMillis(dualWritePropagationMillis);
+        settings.setCatchUpAttempts(catchUpAttempts);
+        settings.setAliasConcurrency(aliasConcurrency);
+        settings.setBulkLoad(bulkLoad);
+        settings.setBulkLoadMaxNumSegments(bulkLoadMaxNumSegments);
+        settings.setBulkLoadGreenTimeoutMillis(bulkLoadGreenTimeoutMillis);
+        settings.setBulkMaxRetries(bulkMaxRetries);
+        settings.setBulkInitialBackoffMillis(bulkInitialBackoffMillis);
+        settings.setBulkMaxBackoffMillis(bulkMaxBackoffMillis);
+        settings.setMaxFailures(maxFailures);
+        settings.setDeadLetterDirectory(deadLetterDirectory);
+        return settings;
+    }
 }
@@ -1,41 +1,82 @@
 package org.diveintojee.poc.digitaloceancluster.app1;
 
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.elasticsearch.action.admin.cluster.health.ClusterHealthResponse;
+import org.elasticsearch.action.admin.cluster.health.ClusterHealthStatus;
 import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequestBuilder;
 import org.elasticsearch.action.admin.indices.alias.IndicesAliasesResponse;
 import org.elasticsearch.action.admin.indices.create.CreateIndexResponse;
 import org.elasticsearch.action.admin.indices.delete.DeleteIndexResponse;
 import org.elasticsearch.action.admin.indices.mapping.put.PutMappingResponse;
-import org.elasticsearch.action.bulk.BulkRequestBuilder;
-import org.elasticsearch.action.bulk.BulkResponse;
-import org.elasticsearch.action.search.SearchRequestBuilder;
-import org.elasticsearch.action.search.SearchResponse;
-import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.action.admin.indices.optimize.OptimizeResponse;
+import org.elasticsearch.action.admin.indices.settings.put.UpdateSettingsResponse;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetRequestBuilder;
+import org.elasticsearch.action.get.MultiGetResponse;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.client.IndicesAdminClient;
 import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.unit.TimeValue;
-import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.VersionType;
 import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.fetch.source.FetchSourceContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.Serializable;
-import java.net.MalformedURLException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 
 public class Migration implements Serializable {
 
 	private static final Logger LOG = LoggerFactory.getLogger(Migration.class);
 
+	private static final String REFRESH_INTERVAL = "index.refresh_interval";
+	private static final String NUMBER_OF_REPLICAS = "index.number_of_replicas";
+	private static final String BULK_LOAD_REFRESH_INTERVAL = "-1";
+	private static final String DEFAULT_REFRESH_INTERVAL = "1s";
+	private static final int DEFAULT_NUMBER_OF_REPLICAS = 1;
+
 	private Client client;
 	private Index source;
 	private Index target;
+	private MigrationSettings settings;
+	private CheckpointRepository checkpoints;
+	private ClusterStateCache clusterState;
+	private DeadLetterFile deadLetters;
+	private DocumentTransformer transformer;
 
 	public Migration(Client client, Index source, Index target) {
+		this(client, source, target, new MigrationSettings());
+	}
+
+	public Migration(Client client, Index source, Index target, MigrationSettings settings) {
+		this(client, source, target, settings, new ClusterStateCache(client));
+	}
+
+	/**
+	 * @param clusterState shared by every migration planned from the same cluster state
+	 */
+	public Migration(Client client, Index source, Index target, MigrationSettings settings, ClusterStateCache clusterState) {
 		this.setClient(client);
 		this.setSource(source);
 		this.setTarget(target);
+		this.setSettings(settings);
+		this.setClusterState(clusterState);
 	}
 
 	public void setSource(Index source) {
@@ -50,20 +91,239 @@ public class Migration implements Serializable {
 		this.client = client;
 	}
 
+	public void setSettings(MigrationSettings settings) {
+		this.settings = settings;
+		this.checkpoints = new CheckpointRepository(settings.getCheckpointDirectory());
+	}
+
+	public void setClusterState(ClusterStateCache clusterState) {
+		this.clusterState = clusterState;
+	}
+
+	public Index getSource() {
+		return source;
+	}
+
+	public Index getTarget() {
+		return target;
+	}
+
     public void migrate() throws ExecutionException, InterruptedException, IOException {
+        try {
+            migrateOrResume();
+        } finally {
+            if (deadLetters != null) {
+                deadLetters.close();
+            }
+        }
+    }
 
-        // Create index
-        createTargetIndex();
+    private void migrateOrResume() throws ExecutionException, InterruptedException, IOException {
 
-        // Bulk index target index from source index
-        bulkIndexTargetIndexFromSourceIndex();
+        // Create index, or resume an interrupted migration
+        final Checkpoint checkpoint = startOrResume();
 
-        // Atomically Add and Remove alias
-        switchIndex();
+        if (checkpoint.getPhase() == Checkpoint.Phase.COPYING) {
+            final boolean dualWrite = isDualWrite();
+            if (dualWrite) {
+                // Writers mirror their changes to the target while it is being filled
+                openDualWrite();
+            }
+            if (checkpoint.getCopyStartedAt() == 0) {
+                checkpoint.setCopyStartedAt(System.currentTimeMillis());
+                checkpoints.save(checkpoint);
+            }
+
+            // Bulk index target index from source index
+            bulkIndexTargetIndexFromSourceIndex(checkpoint);
+
+            if (dualWrite) {
+                // Replay what changed during the copy until both indices agree
+                catchUp(checkpoint);
+            }
+
+            if (isBulkLoad()) {
+                // Leave the bulk-load profile before the target serves reads
+                finishBulkLoad();
+            }
+
+            // Atomically Add and Remove alias
+            switchIndex();
+            checkpoint.setPhase(Checkpoint.Phase.SWITCHED);
+            checkpoints.save(checkpoint);
+        }
 
         // Delete source index
         if (source != null)
             deleteIndex(source.getName());
+
+        checkpoints.delete(target.getName());
+    }
+
+    /**
+     * A checkpoint is only trusted if its target index exists: it was written before the target was created.
+     */
+    Checkpoint startOrResume() throws IOException, ExecutionException, InterruptedException {
+        final String targetName = target.getName();
+        Checkpoint checkpoint = checkpoints.load(targetName);
+        if (checkpoint != null && clusterState.get().exists(targetName)) {
+            LOG.info("Resuming migration from checkpoint {}", checkpoint);
+            return checkpoint;
+        }
+        checkpoint = new Checkpoint(source == null ? null : source.getName(), targetName);
+        checkpoints.save(checkpoint);
+        // Failures of an abandoned attempt do not count against this one
+        final Path rotated = deadLetters().rotate();
+        if (rotated != null) {
+            LOG.info("Previous dead letters of '{}' moved to '{}'", targetName, rotated);
+        }
+        createTargetIndex();
+        return checkpoint;
+    }
+
+    /**
+     * Writers mirror untransformed documents: dual-write is off for a target that declares a transformer.
+     */
+    boolean isDualWrite() {
+        if (!settings.isDualWrite() || source == null || Strings.isEmpty(source.getName())) {
+            return false;
+        }
+        if (target.getTransformer() != null) {
+            LOG.warn("Dual-write is not supported when documents are transformed, '{}' is migrated without it", target.getName());
+            return false;
+        }
+        return true;
+    }
+
+    String nextAlias() {
+        return target.getAlias() + MigrationSettings.NEXT_ALIAS_SUFFIX;
+    }
+
+    /**
+     * Points the "next" alias to the target, then waits for writers to notice it before the copy starts.
+     */
+    void openDualWrite() throws ExecutionException, InterruptedException {
+        final String alias = nextAlias();
+        final String targetName = target.getName();
+        final IndicesAliasesResponse response = client.admin().indices().prepareAliases().addAlias(targetName, alias).execute().get();
+        if (!response.isAcknowledged()) {
+            throw new IllegalStateException("Failed to add alias '" + alias + "' to target index '" + targetName + "'");
+        }
+        clusterState.invalidate();
+        LOG.info("Dual-write opened on '{}' through alias '{}'", targetName, alias);
+        Thread.sleep(settings.getDualWritePropagationMillis());
+    }
+
+    /**
+     * Re-copies the source documents changed since the last pass and deletes from the target the documents no longer
+     * in the source, until a pass has nothing left to replay or prune. External versioning makes every replay
+     * idempotent: a document mirrored by a writer is never overwritten by an older copy, and is not counted as replayed.
+     * <p/>
+     * A source without {@code _timestamp} (every v1 index) cannot tell changed documents apart: replaying would re-copy
+     * the whole index on every pass, so only deletes are caught up and the target relies on writers mirroring changes.
+     */
+    void catchUp(Checkpoint checkpoint) throws ExecutionException, InterruptedException {
+        final String sourceName = source.getName();
+        final String targetName = target.getName();
+        final IndicesAdminClient indicesAdminClient = client.admin().indices();
+        final SourceReader sourceReader = new SourceReader(client, settings, clusterState);
+        final Semaphore inFlight = new Semaphore(settings.getConcurrentRequests());
+        // Leave room for writers that had not noticed the alias yet
+        long since = checkpoint.getCopyStartedAt() - settings.getDualWritePropagationMillis();
+        final boolean timestamped = sourceReader.changedSince(sourceName, since) != null;
+        if (!timestamped) {
+            LOG.warn("Source index '{}' does not map _timestamp: changes written before writers mirrored them to '{}' "
+                    + "are not replayed", sourceName, targetName);
+        }
+        for (int attempt = 1; attempt <= settings.getCatchUpAttempts(); attempt++) {
+            final long passStartedAt = System.currentTimeMillis();
+            indicesAdminClient.prepareRefresh(sourceName, targetName).execute().get();
+            final long replayed = timestamped
+                    ? copyPartition(sourceReader, sourceName, targetName, sourceReader.changedSince(sourceName, since), inFlight)
+                    : 0;
+            final long pruned = pruneDeleted(sourceReader, sourceName, targetName, inFlight);
+            LOG.info("Catch-up pass {} on '{}': {} replayed, {} pruned", attempt, targetName, replayed, pruned);
+            if (replayed == 0 && pruned == 0) {
+                indicesAdminClient.prepareRefresh(targetName).execute().get();
+                return;
+            }
+            since = passStartedAt - settings.getDualWritePropagationMillis();
+        }
+        throw new IllegalStateException("Target index '" + targetName + "' did not converge with source index '" + sourceName
+                + "' after " + settings.getCatchUpAttempts() + " catch-up passes");
+    }
+
+    /**
+     * Deletes from the target the documents deleted from the source while it was being copied.
+     */
+    long pruneDeleted(SourceReader sourceReader, final String sourceName, final String targetName, Semaphore inFlight)
+            throws ExecutionException, InterruptedException {
+        final BulkIndexer bulkIndexer = new BulkIndexer(client, targetName, settings, inFlight, deadLetters());
+        final List<SearchHit> page = Lists.newArrayList();
+        try {
+            sourceReader.scroll(targetName, ScrollPartition.all(), new SourceReader.HitHandler() {
+                @Override
+                public void handle(SearchHit hit) throws InterruptedException {
+                    page.add(hit);
+                    if (page.size() >= settings.getScrollSize()) {
+                        deleteMissing(sourceName, targetName, page, bulkIndexer);
+                    }
+                }
+            }, false);
+            deleteMissing(sourceName, targetName, page, bulkIndexer);
+        } finally {
+            bulkIndexer.close();
+        }
+        return bulkIndexer.getIndexed();
+    }
+
+    private void deleteMissing(String sourceName, String targetName, List<SearchHit> page, BulkIndexer bulkIndexer)
+            throws InterruptedException {
+        if (page.isEmpty()) {
+            return;
+        }
+        final MultiGetRequestBuilder multiGet = client.prepareMultiGet().setRealtime(true);
+        for (SearchHit hit : page) {
+            multiGet.add(new MultiGetRequest.Item(sourceName, hit.getType(), hit.getId()).fetchSourceContext(new FetchSourceContext(false)));
+        }
+        final MultiGetResponse response;
+        try {
+            response = multiGet.execute().get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to look up '" + targetName + "' documents in '" + sourceName + "'", e);
+        }
+        for (MultiGetItemResponse item : response.getResponses()) {
+            if (item.isFailed()) {
+                throw new IllegalStateException("Failed to look up document '" + item.getId() + "' in '" + sourceName + "': "
+                        + item.getFailure().getMessage());
+            }
+            if (!item.getResponse().isExists()) {
+                bulkIndexer.add(client.prepareDelete(targetName, item.getType(), item.getId()).request());
+            }
+        }
+        page.clear();
+    }
+
+    /**
+     * @return the transformer declared by the target version, instantiated once per migration, null if none
+     */
+    synchronized DocumentTransformer transformer() {
+        if (transformer == null && target.getTransformer() != null) {
+            try {
+                transformer = (DocumentTransformer) Class.forName(target.getTransformer()).newInstance();
+            } catch (ClassNotFoundException | InstantiationException | IllegalAccessException | ClassCastException e) {
+                throw new IllegalStateException("Failed to instantiate transformer '" + target.getTransformer()
+                        + "' of target index '" + target.getName() + "'", e);
+            }
+        }
+        return transformer;
+    }
+
+    synchronized DeadLetterFile deadLetters() {
+        if (deadLetters == null) {
+            deadLetters = new DeadLetterFile(settings.getDeadLetterDirectory(), target.getName());
+        }
+        return deadLetters;
     }
 
     void createTargetIndex() throws IOException, ExecutionException, InterruptedException {
@@ -74,6 +334,7 @@ public class Migration implements Serializable {
 		final String indexName = target.getName();
 		final CreateIndexResponse createIndexResponse = indicesAdminClient.prepareCreate(indexName)
                 .setSource(target.getSettings()).execute().get();
+        clusterState.invalidate();
         if (!createIndexResponse.isAcknowledged()) {
             throw new IllegalStateException("Failed to create target index '" + indexName + "'");
         }
@@ -87,9 +348,87 @@ public class Migration implements Serializable {
             }
         }
 
+        if (isBulkLoad()) {
+            startBulkLoad();
+        }
+    }
+
+    boolean isBulkLoad() {
+        return settings.isBulkLoad() && source != null && !Strings.isEmpty(source.getName());
+    }
+
+    /**
+     * Disables refresh and replication on the target while it is being filled.
+     */
+    void startBulkLoad() throws ExecutionException, InterruptedException {
+        final String indexName = target.getName();
+        final UpdateSettingsResponse response = client.admin().indices().prepareUpdateSettings(indexName)
+                .setSettings(ImmutableSettings.settingsBuilder()
+                        .put(REFRESH_INTERVAL, BULK_LOAD_REFRESH_INTERVAL)
+                        .put(NUMBER_OF_REPLICAS, 0))
+                .execute().get();
+        if (!response.isAcknowledged()) {
+            throw new IllegalStateException("Failed to apply bulk-load settings to target index '" + indexName + "'");
+        }
+        LOG.info("Bulk-load profile applied to '{}'", indexName);
+    }
+
+    /**
+     * Merges the target segments, restores the refresh interval and replica count declared by its settings, and waits
+     * for every replica to be allocated so that the alias never points to an under-replicated index.
+     */
+    void finishBulkLoad() throws ExecutionException, InterruptedException {
+        final String indexName = target.getName();
+        final IndicesAdminClient indicesAdminClient = client.admin().indices();
+
+        // Merge before replicas exist, they recover from the merged segments
+        final OptimizeResponse optimizeResponse = indicesAdminClient.prepareOptimize(indexName)
+                .setMaxNumSegments(settings.getBulkLoadMaxNumSegments()).setWaitForMerge(true).execute().get();
+        if (optimizeResponse.getFailedShards() > 0) {
+            throw new IllegalStateException("Failed to optimize target index '" + indexName + "': "
+                    + optimizeResponse.getFailedShards() + " shard(s) failed");
+        }
+
+        final Settings declared = declaredSettings();
+        final UpdateSettingsResponse updateSettingsResponse = indicesAdminClient.prepareUpdateSettings(indexName)
+                .setSettings(ImmutableSettings.settingsBuilder()
+                        .put(REFRESH_INTERVAL, declared.get(REFRESH_INTERVAL, DEFAULT_REFRESH_INTERVAL))
+                        .put(NUMBER_OF_REPLICAS, declared.getAsInt(NUMBER_OF_REPLICAS, DEFAULT_NUMBER_OF_REPLICAS)))
+                .execute().get();
+        if (!updateSettingsResponse.isAcknowledged()) {
+            throw new IllegalStateException("Failed to restore declared settings of target index '" + indexName + "'");
+        }
+        indicesAdminClient.prepareRefresh(indexName).execute().get();
+
+        final ClusterHealthResponse health = client.admin().cluster().prepareHealth(indexName)
+                .setWaitForGreenStatus()
+                .setTimeout(TimeValue.timeValueMillis(settings.getBulkLoadGreenTimeoutMillis()))
+                .execute().get();
+        if (health.isTimedOut() || health.getStatus() != ClusterHealthStatus.GREEN) {
+            throw new IllegalStateException("Target index '" + indexName + "' is " + health.getStatus()
+                    + " after " + settings.getBulkLoadGreenTimeoutMillis() + " ms, refusing to switch alias '" + target.getAlias() + "'");
+        }
+        LOG.info("Bulk-load profile removed from '{}'", indexName);
     }
 
-    void bulkIndexTargetIndexFromSourceIndex() throws InterruptedException, ExecutionException, MalformedURLException {
+    /**
+     * @return settings declared by the target settings.json, keys prefixed with "index."
+     */
+    Settings declaredSettings() {
+        final Settings loaded = ImmutableSettings.settingsBuilder().loadFromSource(target.getSettings()).build();
+        final Settings unwrapped = loaded.getByPrefix("settings.").getAsMap().isEmpty() ? loaded : loaded.getByPrefix("settings.");
+        final ImmutableSettings.Builder normalized = ImmutableSettings.settingsBuilder();
+        for (Map.Entry<String, String> entry : unwrapped.getAsMap().entrySet()) {
+            normalized.put(entry.getKey().startsWith("index.") ? entry.getKey() : "index." + entry.getKey(), entry.getValue());
+        }
+        return normalized.build();
+    }
+
+    void bulkIndexTargetIndexFromSourceIndex() throws InterruptedException, ExecutionException, IOException {
+        bulkIndexTargetIndexFromSourceIndex(new Checkpoint(source == null ? null : source.getName(), target == null ? null : target.getName()));
+    }
+
+    void bulkIndexTargetIndexFromSourceIndex(final Checkpoint checkpoint) throws InterruptedException, ExecutionException, IOException {
 
 		if (source == null || Strings.isEmpty(source.getName())) {
 			return;
@@ -100,65 +439,120 @@ public class Migration implements Serializable {
 		}
 		final String targetName = target.getName();
 		final IndicesAdminClient indicesAdminClient = client.admin().indices();
+        final ClusterSnapshot snapshot = clusterState.get();
 
-        if (!indicesAdminClient.prepareExists(sourceName).execute().get().isExists()) {
+        if (!snapshot.exists(sourceName)) {
             throw new IllegalStateException("Trying to reindex from '" + sourceName + "', but source index does not exist");
         }
 
-        if (!indicesAdminClient.prepareExists(targetName).execute().get().isExists()) {
+        if (!snapshot.exists(targetName)) {
             throw new IllegalStateException("Trying to reindex from '" + sourceName + "' to '" + targetName + "', but target index does not exist");
         }
 
-        SearchRequestBuilder searchBuilder = client.prepareSearch(sourceName)
-                .setSearchType(SearchType.SCAN)
-                .setScroll(new TimeValue(6000))
-                .setQuery(QueryBuilders.matchAllQuery())
-                .setSize(200);
-        SearchResponse scrollResp = searchBuilder.execute().get();
-
-        //Scroll until no hits are returned
-        final BulkRequestBuilder bulkRequestBuilder = client.prepareBulk();
-        while (true) {
-            scrollResp = client.prepareSearchScroll(scrollResp.getScrollId()).setScroll(new TimeValue(6000)).execute().get();
-
-//            final SearchHits hits = scrollResp.getHits();
-//            if(hits == null || hits.getTotalHits() <= 0) break;
-//            for (SearchHit hit : hits) {
-//                //Handle the hit…
-//                bulkRequestBuilder.add(client.prepareIndex(targetName, hit.getType())
-//                        .setSource(hit.getSourceAsString()).setId(hit.getId()));
-//            }
-            boolean hitsRead = false;
-            for (SearchHit hit : scrollResp.getHits()) {
-
-                hitsRead = true;
-                //Handle the hit…
-                bulkRequestBuilder.add(client.prepareIndex(targetName, hit.getType())
-                        .setSource(hit.getSourceAsString()).setId(hit.getId()));
+        // Plan partitions once: a resumed migration reuses the checkpointed plan and skips completed partitions, the
+        // others are copied again from their start (see Checkpoint)
+        final SourceReader sourceReader = new SourceReader(client, settings, clusterState);
+        final List<ScrollPartition> partitions = Lists.newArrayList();
+        if (checkpoint.getPartitions().isEmpty()) {
+            partitions.addAll(sourceReader.partition(sourceName));
+            List<String> plan = Lists.newArrayList();
+            for (ScrollPartition partition : partitions) {
+                plan.add(partition.getId());
             }
-            //Break condition: No hits are returned
-            if (!hitsRead) {
-                break;
+            checkpoint.setPartitions(plan);
+            checkpoints.save(checkpoint);
+        } else {
+            for (String id : checkpoint.getPartitions()) {
+                if (!checkpoint.isCompleted(id)) {
+                    partitions.add(ScrollPartition.fromId(id));
+                }
             }
-
         }
 
-        final BulkResponse bulkItemResponses = bulkRequestBuilder.execute().get();
-        if (bulkItemResponses.hasFailures()) {
-            throw new IllegalStateException("Failed to bulk index target index '" + targetName + "' from source index '" + sourceName);
+        // Read partitions in parallel, all feeding bulk requests to the target through the same in-flight limit
+        final Semaphore inFlight = new Semaphore(settings.getConcurrentRequests());
+        final ExecutorService workers = Executors.newFixedThreadPool(Math.max(1, Math.min(settings.getScrollWorkers(), partitions.size())),
+                new ThreadFactoryBuilder().setNameFormat("reindex-" + targetName + "-%d").build());
+        long copied = 0;
+        try {
+            List<Future<Long>> futures = Lists.newArrayList();
+            for (final ScrollPartition partition : partitions) {
+                futures.add(workers.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() throws Exception {
+                        final long copied = copyPartition(sourceReader, sourceName, targetName, partition, inFlight);
+                        checkpoint.complete(partition.getId(), copied);
+                        checkpoints.save(checkpoint);
+                        return copied;
+                    }
+                }));
+            }
+            for (Future<Long> future : futures) {
+                copied += future.get();
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+        LOG.info("Copied {} documents from '{}' to '{}' through {} partition(s), {} in total", copied, sourceName, targetName,
+                partitions.size(), checkpoint.getDocuments());
+        if (deadLetters().getCount() > 0) {
+            LOG.warn("{} document(s) could not be copied to '{}', see '{}'", deadLetters().getCount(), targetName, deadLetters().getFile());
         }
+
         indicesAdminClient.prepareRefresh(targetName).execute().get();
 
     }
 
+    long copyPartition(SourceReader sourceReader, String sourceName, final String targetName, ScrollPartition partition, Semaphore inFlight)
+            throws ExecutionException, InterruptedException {
+        final BulkIndexer bulkIndexer = new BulkIndexer(client, targetName, settings, inFlight, deadLetters());
+        final DocumentTransformer transformer = transformer();
+        try {
+            sourceReader.scroll(sourceName, partition, new SourceReader.HitHandler() {
+                @Override
+                public void handle(SearchHit hit) throws InterruptedException {
+                    final IndexRequest request = copyRequest(targetName, hit, transformer);
+                    if (request != null) {
+                        bulkIndexer.add(request);
+                    }
+                }
+            });
+        } finally {
+            bulkIndexer.close();
+        }
+        LOG.debug("Copied {} documents from partition {} of '{}'", bulkIndexer.getIndexed(), partition.getId(), sourceName);
+        return bulkIndexer.getIndexed();
+    }
+
+    /**
+     * @return the request copying a source hit to the target, null if the transformer leaves the document out
+     */
+    IndexRequest copyRequest(String targetName, SearchHit hit, DocumentTransformer transformer) {
+        final IndexRequestBuilder request = client.prepareIndex(targetName, hit.getType()).setId(hit.getId());
+        if (transformer == null) {
+            // Passthrough: source bytes go to the bulk request as they were read
+            request.setSource(hit.getSourceRef());
+        } else {
+            final Map<String, Object> transformed = transformer.transform(hit.getType(), hit.getId(), hit.getSource());
+            if (transformed == null) {
+                return null;
+            }
+            request.setSource(transformed);
+        }
+        // Keep the source version so that concurrent writes to the target always win over the copy
+        return request.setVersion(hit.getVersion()).setVersionType(VersionType.EXTERNAL).request();
+    }
+
     void deleteIndex(String index) throws ExecutionException, InterruptedException {
         if (Strings.isEmpty(index)) return;
 
         final IndicesAdminClient indicesAdminClient = client.admin().indices();
-        if (!indicesAdminClient.prepareExists(index).execute().get().isExists()) {
+        if (!clusterState.get().exists(index)) {
             LOG.info("Trying to delete '" + index + "', but index does not exist");
+            return;
         }
         final DeleteIndexResponse deleteIndexResponse = indicesAdminClient.prepareDelete(index).execute().get();
+        clusterState.invalidate();
         if (!deleteIndexResponse.isAcknowledged()) {
             throw new IllegalStateException("Failed to delete index '" + index + "'");
         }
@@ -170,19 +564,25 @@ public class Migration implements Serializable {
 		String targetName = target.getName();
         String sourceName = source == null ? null : source.getName();
 
-        if (!indicesAdminClient.prepareExists(targetName).execute().get().isExists()) {
+        final ClusterSnapshot snapshot = clusterState.get();
+        if (!snapshot.exists(targetName)) {
             throw new IllegalStateException("Trying to add alias '" + alias + "' to '" + targetName + "', but target index does not exist");
         }
 
         final IndicesAliasesRequestBuilder indicesAliasRequestBuilder = indicesAdminClient.prepareAliases()
                 .addAlias(targetName, alias);
         if (source != null && !Strings.isEmpty(source.getName())) {
-            if (!indicesAdminClient.prepareExists(sourceName).execute().get().isExists()) {
+            if (!snapshot.exists(sourceName)) {
                 throw new IllegalStateException("Trying to remove alias '" + alias + "' from '" + sourceName + "', but source index does not exist");
             }
             indicesAliasRequestBuilder.removeAlias(sourceName, alias);
         }
+        if (snapshot.getIndices(nextAlias()).contains(targetName)) {
+            // Close dual-write in the same atomic operation
+            indicesAliasRequestBuilder.removeAlias(targetName, nextAlias());
+        }
         final IndicesAliasesResponse indicesAliasesResponse = indicesAliasRequestBuilder.execute().get();
+        clusterState.invalidate();
         if (!indicesAliasesResponse.isAcknowledged()) {
             throw new IllegalStateException("Failed to atomically add alias '" + alias + "' to target index '" + targetName + "' and remove it from source index '" + sourceName + "'");
         }
@@ -0,0 +1,117 @@
+package org.diveintojee.poc.digitaloceancluster.app1;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.elasticsearch.common.xcontent.XContentHelper;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Plans the hops bringing an alias from its current index to its latest version. Copying a document through
+ * intermediate versions does not change it, so a stale alias is reindexed straight to the most recent version its
+ * current mappings are compatible with. An intermediate version is only built when the mappings require it, or when it
+ * declares a {@link DocumentTransformer}: its documents must go through it.
+ *
+ * @author louis.gueye@gmail.com
+ */
+public class MigrationPlanner {
+
+    private static final String PROPERTIES = "properties";
+    private static final String TYPE = "type";
+    private static final String DYNAMIC = "dynamic";
+    private static final String STRICT = "strict";
+    private static final String OBJECT = "object";
+
+    /**
+     * @param current the index the alias points to, null if none
+     * @param pending versions to migrate to, in order
+     * @return the indices to build, in order: each one is reindexed from the previous one (or from current)
+     */
+    public List<Index> plan(Index current, List<Index> pending) {
+        List<Index> targets = Lists.newArrayList();
+        Index from = current;
+        int i = 0;
+        while (i < pending.size()) {
+            int next = i;
+            // Never skip a version that transforms documents
+            int last = i;
+            while (last < pending.size() - 1 && pending.get(last).getTransformer() == null) {
+                last++;
+            }
+            for (int j = last; j > i; j--) {
+                if (canReindexDirectly(from, pending.get(j))) {
+                    next = j;
+                    break;
+                }
+            }
+            from = pending.get(next);
+            targets.add(from);
+            i = next + 1;
+        }
+        return targets;
+    }
+
+    /**
+     * A source can be reindexed directly to a target when every field it declares is declared by the target
+     * with the same type, and the target is not stricter than the source.
+     */
+    boolean canReindexDirectly(Index source, Index target) {
+        if (source == null) {
+            return true;
+        }
+        final Map<String, Map<String, Object>> targetTypes = types(target);
+        for (Map.Entry<String, Map<String, Object>> sourceType : types(source).entrySet()) {
+            final Map<String, Object> targetType = targetTypes.get(sourceType.getKey());
+            if (targetType == null || !isCompatible(sourceType.getValue(), targetType)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    boolean isCompatible(Map<String, Object> source, Map<String, Object> target) {
+        if (STRICT.equals(String.valueOf(target.get(DYNAMIC))) && !STRICT.equals(String.valueOf(source.get(DYNAMIC)))) {
+            return false;
+        }
+        final Map<String, Object> sourceProperties = (Map<String, Object>) source.get(PROPERTIES);
+        if (sourceProperties == null) {
+            return true;
+        }
+        final Map<String, Object> targetProperties = (Map<String, Object>) target.get(PROPERTIES);
+        if (targetProperties == null) {
+            return false;
+        }
+        for (Map.Entry<String, Object> sourceField : sourceProperties.entrySet()) {
+            final Map<String, Object> sourceDefinition = (Map<String, Object>) sourceField.getValue();
+            final Map<String, Object> targetDefinition = (Map<String, Object>) targetProperties.get(sourceField.getKey());
+            if (targetDefinition == null || !typeOf(sourceDefinition).equals(typeOf(targetDefinition))
+                    || !isCompatible(sourceDefinition, targetDefinition)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String typeOf(Map<String, Object> definition) {
+        final Object type = definition.get(TYPE);
+        return type == null ? OBJECT : String.valueOf(type);
+    }
+
+    /**
+     * @return type definitions of an index, keyed by type name
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, Map<String, Object>> types(Index index) {
+        Map<String, Map<String, Object>> types = Maps.newHashMap();
+        for (Mapping mapping : index.getMappings()) {
+            final Map<String, Object> root = XContentHelper.convertToMap(mapping.getDefinition().getBytes(Charsets.UTF_8), false).v2();
+            // Definitions are either wrapped in their type name or not
+            final Object wrapped = root.get(mapping.getType());
+            types.put(mapping.getType(), wrapped instanceof Map ? (Map<String, Object>) wrapped : root);
+        }
+        return types;
+    }
+}
@@ -1,12 +1,15 @@
 package org.diveintojee.poc.digitaloceancluster.app1;
 
 import com.google.common.base.Charsets;
+import com.google.common.base.Stopwatch;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.io.Resources;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.elasticsearch.client.Client;
-import org.elasticsearch.client.IndicesAdminClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.core.io.Resource;
@@ -14,11 +17,18 @@ import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author louis.gueye@gmail.com
@@ -27,35 +37,121 @@ import java.util.concurrent.ExecutionException;
 public class MigrationService {
 
     private Client client;
+    private MigrationSettings settings;
+    private final MigrationPlanner planner = new MigrationPlanner();
+    private ClusterStateCache clusterState;
 
-//	private static final Logger LOG = LoggerFactory.getLogger(MigrationService.class);
+	private static final Logger LOG = LoggerFactory.getLogger(MigrationService.class);
 
-    @Autowired
     public MigrationService(Client client) {
+        this(client, new MigrationSettings());
+    }
+
+    @Autowired
+    public MigrationService(Client client, MigrationSettings settings) {
         this.client = client;
+        this.settings = settings;
+        this.clusterState = new ClusterStateCache(client);
     }
 
+    /**
+     * Aliases do not depend on each other: their migration chains run in parallel, at most
+     * {@link MigrationSettings#getAliasConcurrency()} at a time, while the versions of a given alias are migrated in order.
+     * A failing alias does not interrupt the others, the first failure is rethrown once every chain is done.
+     */
     public void migrate() throws IOException, ExecutionException, InterruptedException {
         Set<Index> indicesGraph = buildIndicesGraph("/migrations/**/v?");
-        List<Migration> migrations = resolveMigrations(indicesGraph);
-        for (Migration migration : migrations) {
-            migration.migrate();
+        // Plan from a fresh cluster state
+        clusterState.invalidate();
+        final Map<String, List<Migration>> chains = resolveMigrationChains(indicesGraph);
+        if (chains.isEmpty()) return;
+
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(settings.getAliasConcurrency(), chains.size())),
+                new ThreadFactoryBuilder().setNameFormat("migrate-%d").build());
+        final Map<String, Future<Long>> durations = Maps.newTreeMap();
+        final Stopwatch total = Stopwatch.createStarted();
+        try {
+            for (final Map.Entry<String, List<Migration>> chain : chains.entrySet()) {
+                durations.put(chain.getKey(), executor.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() throws Exception {
+                        return migrateChain(chain.getKey(), chain.getValue());
+                    }
+                }));
+            }
+            ExecutionException failure = null;
+            for (Map.Entry<String, Future<Long>> duration : durations.entrySet()) {
+                try {
+                    LOG.info("Alias '{}' migrated in {} ms", duration.getKey(), duration.getValue().get());
+                } catch (ExecutionException e) {
+                    LOG.error("Alias '{}' failed to migrate", duration.getKey(), e.getCause());
+                    if (failure == null) failure = e;
+                }
+            }
+            LOG.info("Migrated {} alias(es) in {} ms", durations.size(), total.elapsed(TimeUnit.MILLISECONDS));
+            if (failure != null) throw failure;
+        } finally {
+            executor.shutdownNow();
         }
 	}
 
-    List<Migration> resolveMigrations(Set<Index> indicesGraph) throws ExecutionException, InterruptedException {
-		Map<String, List<Index>> aliases = groupIndicesByAlias(indicesGraph);
+    long migrateChain(String alias, List<Migration> chain) throws InterruptedException, ExecutionException, IOException {
+        final Stopwatch stopwatch = Stopwatch.createStarted();
+        for (Migration migration : chain) {
+            final Stopwatch hop = Stopwatch.createStarted();
+            migration.migrate();
+            LOG.info("Migrated '{}' from '{}' to '{}' in {} ms", alias,
+                    migration.getSource() == null ? null : migration.getSource().getName(),
+                    migration.getTarget().getName(), hop.elapsed(TimeUnit.MILLISECONDS));
+        }
+        return stopwatch.elapsed(TimeUnit.MILLISECONDS);
+    }
+
+    List<Migration> resolveMigrations(Set<Index> indicesGraph) throws ExecutionException, InterruptedException, IOException {
         List<Migration> migrations = Lists.newArrayList();
+        for (List<Migration> chain : resolveMigrationChains(indicesGraph).values()) {
+            migrations.addAll(chain);
+        }
+        return migrations;
+    }
+
+    /**
+     * @return migrations to run, grouped by alias in version order
+     */
+    Map<String, List<Migration>> resolveMigrationChains(Set<Index> indicesGraph) throws ExecutionException, InterruptedException, IOException {
+		Map<String, List<Index>> aliases = groupIndicesByAlias(indicesGraph);
+        final CheckpointRepository checkpoints = new CheckpointRepository(settings.getCheckpointDirectory());
+        Map<String, List<Migration>> chains = Maps.newTreeMap();
         for (String alias : aliases.keySet()) {
             final List<Index> indices = aliases.get(alias);
+            final List<Migration> migrations = Lists.newArrayList();
             int position = findCurrentIndex(indices);
-            for (int i = position + 1; i < indices.size(); i++) {
-                final Index sourceIndex = (i == 0) ? null : indices.get(i - 1);
-                final Index targetIndex = indices.get(i);
-                migrations.add(new Migration(this.client, sourceIndex, targetIndex));
+            // The most recent index may be the half-built target of an interrupted migration: resume it first
+            if (position >= 0) {
+                final Checkpoint checkpoint = checkpoints.load(indices.get(position).getName());
+                if (checkpoint != null) {
+                    migrations.add(new Migration(this.client, findIndex(indices, checkpoint.getSource()), indices.get(position), this.settings, this.clusterState));
+                }
+            }
+            // Skip the intermediate versions the mappings do not need
+            Index sourceIndex = position >= 0 ? indices.get(position) : null;
+            for (Index targetIndex : planner.plan(sourceIndex, indices.subList(position + 1, indices.size()))) {
+                migrations.add(new Migration(this.client, sourceIndex, targetIndex, this.settings, this.clusterState));
+                sourceIndex = targetIndex;
+            }
+            if (!migrations.isEmpty()) {
+                chains.put(alias, migrations);
             }
         }
-		return migrations;
+		return chains;
+    }
+
+    Index findIndex(List<Index> indices, String name) {
+        if (name == null) return null;
+        for (Index index : indices) {
+            if (name.equals(index.getName())) return index;
+        }
+        throw new IllegalStateException("Checkpointed source index '" + name + "' is not declared in migrations");
     }
 
 	Map<String, List<Index>> groupIndicesByAlias(Set<Index> indicesGraph) {
@@ -71,11 +167,17 @@ public class MigrationService {
 	}
 
 	int findCurrentIndex(final List<Index> indices) throws ExecutionException, InterruptedException {
-        final IndicesAdminClient indicesAdminClient = client.admin().indices();
+        final ClusterSnapshot snapshot = clusterState.get();
         int idx = -1;
         for (int i = 0; i < indices.size(); i++) {
             Index index = indices.get(i);
-            if (indicesAdminClient.prepareExists(index.getName()).execute().get().isExists()) {
+            index.setGeneration(null);
+            // Purged by the api: same version, recreated under a new name
+            final Long generation = snapshot.findLiveGeneration(index.getAlias(), index.getName());
+            if (generation != null) {
+                index.setGeneration(generation);
+                idx = i;
+            } else if (snapshot.exists(index.getName())) {
                 idx = i;
             }
         }
@@ -104,6 +206,7 @@ public class MigrationService {
 		index.setAlias(alias);
 		index.setVersion(version);
 		index.setSettings(settings);
+		index.setTransformer(extractIndexTransformer(normalizedURL));
 		final String mappingsPattern = "/migrations/" + alias + "/" + version + "/mappings/**.json";
 		final Resource[] mappingResources = new PathMatchingResourcePatternResolver().getResources(mappingsPattern);
 		for (Resource mappingResource : mappingResources) {
@@ -142,6 +245,25 @@ public class MigrationService {
         return Resources.toString(new ClassPathResource(settings).getURL(), Charsets.UTF_8);
     }
 
+    /**
+     * @return the transformer class declared in transformer.properties next to settings.json, null if none
+     */
+    String extractIndexTransformer(final String input) throws IOException {
+		if (input.endsWith("/")) throw new IllegalArgumentException("URL should not end with / char");
+        final String pattern = "/migrations/";
+        final ClassPathResource resource = new ClassPathResource(input.substring(input.indexOf(pattern), input.length()) + "/transformer.properties");
+        if (!resource.exists()) return null;
+        Properties properties = new Properties();
+        try (InputStream inputStream = resource.getInputStream()) {
+            properties.load(inputStream);
+        }
+        final String transformer = properties.getProperty("class");
+        if (transformer == null || transformer.trim().isEmpty()) {
+            throw new IllegalStateException("Missing 'class' property in '" + resource.getPath() + "'");
+        }
+        return transformer.trim();
+    }
+
     String extractIndexVersion(final String input) {
 		if (input.endsWith("/")) throw new IllegalArgumentException("URL should not end with / char");
 		final String pattern = "/migrations/";
@@ -0,0 +1,292 @@
+package org.diveintojee.poc.digitaloceancluster.app1;
+
+import com.google.common.base.Objects;
+
+import java.io.Serializable;
+
+/**
+ * Tuning applied to every {@link Migration}. Defaults are safe for small indices, production values come from
+ * {@link IndexMigrationConfiguration}.
+ *
+ * @author louis.gueye@gmail.com
+ */
+public class MigrationSettings implements Serializable {
+
+    /**
+     * Suffix of the alias exposing the target index to writers during a dual-write migration.
+     */
+    public static final String NEXT_ALIAS_SUFFIX = "_next";
+
+    private int bulkActions = 1000;
+    private long bulkSizeInBytes = 5 * 1024 * 1024;
+    private int concurrentRequests = 2;
+    private int scrollSize = 200;
+    private long scrollKeepAliveMillis = 60000;
+    private int scrollWorkers = Runtime.getRuntime().availableProcessors();
+    private String partitionField = "id";
+    private int rangePartitions = 16;
+    private String checkpointDirectory = "checkpoints";
+    private boolean dualWrite;
+    private long dualWritePropagationMillis = 5000;
+    private int catchUpAttempts = 3;
+    private int aliasConcurrency = 2;
+    private boolean bulkLoad;
+    private int bulkLoadMaxNumSegments = 1;
+    private long bulkLoadGreenTimeoutMillis = 10 * 60 * 1000;
+    private int bulkMaxRetries = 5;
+    private long bulkInitialBackoffMillis = 100;
+    private long bulkMaxBackoffMillis = 10000;
+    private long maxFailures;
+    private String deadLetterDirectory = "dead-letters";
+
+    /**
+     * Max number of documents buffered before a bulk request is sent.
+     */
+    public int getBulkActions() {
+        return bulkActions;
+    }
+
+    public void setBulkActions(int bulkActions) {
+        this.bulkActions = bulkActions;
+    }
+
+    /**
+     * Max estimated size of a bulk request before it is sent.
+     */
+    public long getBulkSizeInBytes() {
+        return bulkSizeInBytes;
+    }
+
+    public void setBulkSizeInBytes(long bulkSizeInBytes) {
+        this.bulkSizeInBytes = bulkSizeInBytes;
+    }
+
+    /**
+     * Max number of bulk requests in flight. Readers block once it is reached.
+     */
+    public int getConcurrentRequests() {
+        return concurrentRequests;
+    }
+
+    public void setConcurrentRequests(int concurrentRequests) {
+        this.concurrentRequests = concurrentRequests;
+    }
+
+    public int getScrollSize() {
+        return scrollSize;
+    }
+
+    public void setScrollSize(int scrollSize) {
+        this.scrollSize = scrollSize;
+    }
+
+    public long getScrollKeepAliveMillis() {
+        return scrollKeepAliveMillis;
+    }
+
+    public void setScrollKeepAliveMillis(long scrollKeepAliveMillis) {
+        this.scrollKeepAliveMillis = scrollKeepAliveMillis;
+    }
+
+    /**
+     * Number of partitions scrolled concurrently.
+     */
+    public int getScrollWorkers() {
+        return scrollWorkers;
+    }
+
+    public void setScrollWorkers(int scrollWorkers) {
+        this.scrollWorkers = scrollWorkers;
+    }
+
+    /**
+     * Numeric field used to split single-shard indices into ranges.
+     */
+    public String getPartitionField() {
+        return partitionField;
+    }
+
+    public void setPartitionField(String partitionField) {
+        this.partitionField = partitionField;
+    }
+
+    /**
+     * Number of ranges a single-shard index is split into. Completed ranges are checkpointed, so more ranges mean
+     * less work redone after an interruption: an interrupted range is copied again in full. 1 or less copies the index
+     * as a single partition, restarted from scratch when interrupted.
+     */
+    public int getRangePartitions() {
+        return rangePartitions;
+    }
+
+    public void setRangePartitions(int rangePartitions) {
+        this.rangePartitions = rangePartitions;
+    }
+
+    /**
+     * Directory holding one checkpoint file per target index being built.
+     */
+    public String getCheckpointDirectory() {
+        return checkpointDirectory;
+    }
+
+    public void setCheckpointDirectory(String checkpointDirectory) {
+        this.checkpointDirectory = checkpointDirectory;
+    }
+
+    /**
+     * When enabled, the target index is exposed through the {@code <alias>_next} alias while it is built so that
+     * the api writes to both indices, and a catch-up pass replays changes made during the copy before the switch.
+     */
+    public boolean isDualWrite() {
+        return dualWrite;
+    }
+
+    public void setDualWrite(boolean dualWrite) {
+        this.dualWrite = dualWrite;
+    }
+
+    /**
+     * Time given to api nodes to notice the {@code <alias>_next} alias before the copy starts.
+     */
+    public long getDualWritePropagationMillis() {
+        return dualWritePropagationMillis;
+    }
+
+    public void setDualWritePropagationMillis(long dualWritePropagationMillis) {
+        this.dualWritePropagationMillis = dualWritePropagationMillis;
+    }
+
+    /**
+     * Max number of catch-up passes before giving up on convergence.
+     */
+    public int getCatchUpAttempts() {
+        return catchUpAttempts;
+    }
+
+    public void setCatchUpAttempts(int catchUpAttempts) {
+        this.catchUpAttempts = catchUpAttempts;
+    }
+
+    /**
+     * Max number of aliases migrated at the same time. Versions of a given alias are always migrated in order.
+     */
+    public int getAliasConcurrency() {
+        return aliasConcurrency;
+    }
+
+    public void setAliasConcurrency(int aliasConcurrency) {
+        this.aliasConcurrency = aliasConcurrency;
+    }
+
+    /**
+     * When enabled, a target index filled from a source is created without refresh nor replicas. Its declared settings
+     * are restored, its segments merged and its replicas allocated before the alias switch.
+     */
+    public boolean isBulkLoad() {
+        return bulkLoad;
+    }
+
+    public void setBulkLoad(boolean bulkLoad) {
+        this.bulkLoad = bulkLoad;
+    }
+
+    /**
+     * Number of segments per shard the target is merged to at the end of a bulk load.
+     */
+    public int getBulkLoadMaxNumSegments() {
+        return bulkLoadMaxNumSegments;
+    }
+
+    public void setBulkLoadMaxNumSegments(int bulkLoadMaxNumSegments) {
+        this.bulkLoadMaxNumSegments = bulkLoadMaxNumSegments;
+    }
+
+    /**
+     * Max time to wait for the target to turn green at the end of a bulk load.
+     */
+    public long getBulkLoadGreenTimeoutMillis() {
+        return bulkLoadGreenTimeoutMillis;
+    }
+
+    public void setBulkLoadGreenTimeoutMillis(long bulkLoadGreenTimeoutMillis) {
+        this.bulkLoadGreenTimeoutMillis = bulkLoadGreenTimeoutMillis;
+    }
+
+    /**
+     * Max number of times a rejected document is retried before it is considered failed.
+     */
+    public int getBulkMaxRetries() {
+        return bulkMaxRetries;
+    }
+
+    public void setBulkMaxRetries(int bulkMaxRetries) {
+        this.bulkMaxRetries = bulkMaxRetries;
+    }
+
+    /**
+     * Delay before the first retry of a rejected document, doubled on every attempt.
+     */
+    public long getBulkInitialBackoffMillis() {
+        return bulkInitialBackoffMillis;
+    }
+
+    public void setBulkInitialBackoffMillis(long bulkInitialBackoffMillis) {
+        this.bulkInitialBackoffMillis = bulkInitialBackoffMillis;
+    }
+
+    public long getBulkMaxBackoffMillis() {
+        return bulkMaxBackoffMillis;
+    }
+
+    public void setBulkMaxBackoffMillis(long bulkMaxBackoffMillis) {
+        this.bulkMaxBackoffMillis = bulkMaxBackoffMillis;
+    }
+
+    /**
+     * Number of failed documents a migration tolerates before it stops. Failed documents are written to
+     * {@link #getDeadLetterDirectory()}.
+     */
+    public long getMaxFailures() {
+        return maxFailures;
+    }
+
+    public void setMaxFailures(long maxFailures) {
+        this.maxFailures = maxFailures;
+    }
+
+    public String getDeadLetterDirectory() {
+        return deadLetterDirectory;
+    }
+
+    public void setDeadLetterDirectory(String deadLetterDirectory) {
+        this.deadLetterDirectory = deadLetterDirectory;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("bulkActions", bulkActions)
+                .add("bulkSizeInBytes", bulkSizeInBytes)
+                .add("concurrentRequests", concurrentRequests)
+                .add("scrollSize", scrollSize)
+                .add("scrollKeepAliveMillis", scrollKeepAliveMillis)
+                .add("scrollWorkers", scrollWorkers)
+                .add("partitionField", partitionField)
+                .add("rangePartitions", rangePartitions)
+                .add("checkpointDirectory", checkpointDirectory)
+                .add("dualWrite", dualWrite)
+                .add("dualWritePropagationMillis", dualWritePropagationMillis)
+                .add("catchUpAttempts", catchUpAttempts)
+                .add("aliasConcurrency", aliasConcurrency)
+                .add("bulkLoad", bulkLoad)
+                .add("bulkLoadMaxNumSegments", bulkLoadMaxNumSegments)
+                .add("bulkLoadGreenTimeoutMillis", bulkLoadGreenTimeoutMillis)
+                .add("bulkMaxRetries", bulkMaxRetries)
+                .add("bulkInitialBackoffMillis", bulkInitialBackoffMillis)
+                .add("bulkMaxBackoffMillis", bulkMaxBackoffMillis)
+                .add("maxFailures", maxFailures)
+                .add("deadLetterDirectory", deadLetterDirectory)
+                .toString();
+    }
+}
@@ -0,0 +1,121 @@
+package org.diveintojee.poc.digitaloceancluster.app1;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Splitter;
+import org.elasticsearch.index.query.FilterBuilder;
+import org.elasticsearch.index.query.FilterBuilders;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * A disjoint slice of a source index, read by its own scroll. The id fully describes the slice so that a
+ * checkpointed plan can be rebuilt with {@link #fromId(String)}.
+ *
+ * @author louis.gueye@gmail.com
+ */
+public class ScrollPartition implements Serializable {
+
+    private static final String ALL = "all";
+    private static final String SHARD = "shard";
+    private static final String RANGE = "range";
+    private static final String MISSING = "missing";
+    private static final String CHANGED = "changed";
+    private static final char SEPARATOR = ':';
+
+    private final String id;
+    private final String preference;
+    private final FilterBuilder filter;
+
+    public ScrollPartition(String id, String preference, FilterBuilder filter) {
+        this.id = id;
+        this.preference = preference;
+        this.filter = filter;
+    }
+
+    public static ScrollPartition all() {
+        return new ScrollPartition(ALL, null, null);
+    }
+
+    public static ScrollPartition shard(int shard) {
+        return new ScrollPartition(SHARD + SEPARATOR + shard, "_shards:" + shard, null);
+    }
+
+    public static ScrollPartition range(String field, long from, long to) {
+        return new ScrollPartition(RANGE + SEPARATOR + field + SEPARATOR + from + SEPARATOR + to, null,
+                FilterBuilders.rangeFilter(field).gte(from).lt(to));
+    }
+
+    public static ScrollPartition missing(String field) {
+        return new ScrollPartition(MISSING + SEPARATOR + field, null, FilterBuilders.missingFilter(field));
+    }
+
+    /**
+     * Documents indexed since the given epoch millis, provided the index maps {@code _timestamp}.
+     */
+    public static ScrollPartition changedSince(long since) {
+        return new ScrollPartition(CHANGED + SEPARATOR + since, null, FilterBuilders.rangeFilter("_timestamp").gte(since));
+    }
+
+    public static ScrollPartition fromId(String id) {
+        final List<String> parts = Splitter.on(SEPARATOR).splitToList(id);
+        final String kind = parts.get(0);
+        if (ALL.equals(kind) && parts.size() == 1) {
+            return all();
+        }
+        if (SHARD.equals(kind) && parts.size() == 2) {
+            return shard(Integer.parseInt(parts.get(1)));
+        }
+        if (RANGE.equals(kind) && parts.size() == 4) {
+            return range(parts.get(1), Long.parseLong(parts.get(2)), Long.parseLong(parts.get(3)));
+        }
+        if (MISSING.equals(kind) && parts.size() == 2) {
+            return missing(parts.get(1));
+        }
+        if (CHANGED.equals(kind) && parts.size() == 2) {
+            return changedSince(Long.parseLong(parts.get(1)));
+        }
+        throw new IllegalArgumentException("Unknown partition '" + id + "'");
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return the search preference restricting the scroll to one shard, null to read every shard
+     */
+    public String getPreference() {
+        return preference;
+    }
+
+    /**
+     * @return the filter restricting the scroll to a range of documents, null to read every document
+     */
+    public FilterBuilder getFilter() {
+        return filter;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ScrollPartition)) return false;
+
+        ScrollPartition that = (ScrollPartition) o;
+
+        return id.equals(that.id);
+    }
+
+    @Override
+    public int hashCode() {
+        return id.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("id", id)
+                .add("preference", preference)
+                .toString();
+    }
+}
@@ -0,0 +1,147 @@
+package org.diveintojee.poc.digitaloceancluster.app1;
+
+import com.google.common.collect.Lists;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.MappingMetaData;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.metrics.max.Max;
+import org.elasticsearch.search.aggregations.metrics.min.Min;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Splits a source index into disjoint {@link ScrollPartition}s and scrolls them.
+ * A multi-shard index is split by shard. A single-shard index is split into
+ * {@link MigrationSettings#getRangePartitions()} ranges of {@link MigrationSettings#getPartitionField()}, plus one
+ * partition for documents missing that field.
+ *
+ * @author louis.gueye@gmail.com
+ */
+public class SourceReader {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SourceReader.class);
+
+    private static final String MIN = "min";
+    private static final String MAX = "max";
+
+    public interface HitHandler {
+        void handle(SearchHit hit) throws InterruptedException;
+    }
+
+    private final Client client;
+    private final MigrationSettings settings;
+    private final ClusterStateCache clusterState;
+
+    public SourceReader(Client client, MigrationSettings settings, ClusterStateCache clusterState) {
+        this.client = client;
+        this.settings = settings;
+        this.clusterState = clusterState;
+    }
+
+    public List<ScrollPartition> partition(String sourceName) throws ExecutionException, InterruptedException {
+        final int shards = clusterState.get().getNumberOfShards(sourceName);
+        List<ScrollPartition> partitions = Lists.newArrayList();
+        if (shards > 1) {
+            for (int shard = 0; shard < shards; shard++) {
+                partitions.add(ScrollPartition.shard(shard));
+            }
+        } else {
+            partitions.addAll(partitionByRange(sourceName));
+        }
+        LOG.debug("Reading '{}' ({} shard(s)) through {} partition(s)", sourceName, shards, partitions.size());
+        return partitions;
+    }
+
+    List<ScrollPartition> partitionByRange(String sourceName) throws ExecutionException, InterruptedException {
+        final String field = settings.getPartitionField();
+        final int count = settings.getRangePartitions();
+        if (count <= 1) {
+            return Lists.newArrayList(ScrollPartition.all());
+        }
+        final SearchResponse bounds = client.prepareSearch(sourceName).setSize(0)
+                .addAggregation(AggregationBuilders.min(MIN).field(field))
+                .addAggregation(AggregationBuilders.max(MAX).field(field))
+                .execute().get();
+        final double min = bounds.getAggregations().<Min>get(MIN).getValue();
+        final double max = bounds.getAggregations().<Max>get(MAX).getValue();
+        // Unmapped field or empty index
+        if (Double.isInfinite(min) || Double.isInfinite(max) || Double.isNaN(min) || Double.isNaN(max)) {
+            return Lists.newArrayList(ScrollPartition.all());
+        }
+        final long lower = (long) Math.floor(min);
+        final long upper = (long) Math.floor(max) + 1;
+        final long step = Math.max(1, (upper - lower + count - 1) / count);
+        List<ScrollPartition> partitions = Lists.newArrayList();
+        for (long from = lower; from < upper; from += step) {
+            final long to = Math.min(from + step, upper);
+            partitions.add(ScrollPartition.range(field, from, to));
+        }
+        partitions.add(ScrollPartition.missing(field));
+        return partitions;
+    }
+
+    /**
+     * @return the documents changed since the given epoch millis if every type of the index maps {@code _timestamp},
+     * null otherwise: changes cannot be told apart from the rest of the index
+     */
+    public ScrollPartition changedSince(String sourceName, long since) throws ExecutionException, InterruptedException {
+        final Collection<MappingMetaData> mappings = clusterState.get().getMappings(sourceName).values();
+        boolean timestamped = !mappings.isEmpty();
+        for (MappingMetaData mapping : mappings) {
+            timestamped &= mapping.timestamp().enabled();
+        }
+        return timestamped ? ScrollPartition.changedSince(since) : null;
+    }
+
+    /**
+     * Scrolls one partition of the source index, page by page.
+     */
+    public void scroll(String sourceName, ScrollPartition partition, HitHandler handler) throws ExecutionException, InterruptedException {
+        scroll(sourceName, partition, handler, true);
+    }
+
+    public void scroll(String sourceName, ScrollPartition partition, HitHandler handler, boolean fetchSource)
+            throws ExecutionException, InterruptedException {
+        final TimeValue keepAlive = TimeValue.timeValueMillis(settings.getScrollKeepAliveMillis());
+        SearchRequestBuilder searchBuilder = client.prepareSearch(sourceName)
+                .setSearchType(SearchType.SCAN)
+                .setScroll(keepAlive)
+                .setVersion(true)
+                .setFetchSource(fetchSource)
+                .setSize(settings.getScrollSize());
+        if (partition.getFilter() == null) {
+            searchBuilder.setQuery(QueryBuilders.matchAllQuery());
+        } else {
+            searchBuilder.setQuery(QueryBuilders.filteredQuery(QueryBuilders.matchAllQuery(), partition.getFilter()));
+        }
+        if (partition.getPreference() != null) {
+            searchBuilder.setPreference(partition.getPreference());
+        }
+        SearchResponse scrollResp = searchBuilder.execute().get();
+        try {
+            while (true) {
+                scrollResp = client.prepareSearchScroll(scrollResp.getScrollId()).setScroll(keepAlive).execute().get();
+                final SearchHit[] hits = scrollResp.getHits().getHits();
+                //Break condition: No hits are returned
+                if (hits.length == 0) {
+                    break;
+                }
+                for (SearchHit hit : hits) {
+                    handler.handle(hit);
+                }
+            }
+        } finally {
+            client.prepareClearScroll().addScrollId(scrollResp.getScrollId()).execute();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package org.diveintojee.poc.digitaloceancluster.app1;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class CheckpointRepositoryTest {
+
+	@Test
+	public void saveShouldPersistProgress() throws IOException {
+		// Given
+		CheckpointRepository underTest = new CheckpointRepository(Files.createTempDirectory("checkpoints").toString());
+		Checkpoint checkpoint = new Checkpoint("index1_v1", "index1_v2");
+		checkpoint.setPartitions(Lists.newArrayList("range:id:0:10", "range:id:10:20", "missing:id"));
+		checkpoint.complete("range:id:10:20", 10);
+
+		// When
+		underTest.save(checkpoint);
+		Checkpoint loaded = underTest.load("index1_v2");
+
+		// Then
+		assertEquals("index1_v1", loaded.getSource());
+		assertEquals("index1_v2", loaded.getTarget());
+		assertEquals(Checkpoint.Phase.COPYING, loaded.getPhase());
+		assertEquals(checkpoint.getPartitions(), loaded.getPartitions());
+		assertEquals(Sets.newHashSet("range:id:10:20"), loaded.getCompleted());
+		assertEquals(10L, loaded.getDocuments());
+	}
+
+	@Test
+	public void loadShouldReturnNullOnceDeleted() throws IOException {
+		// Given
+		CheckpointRepository underTest = new CheckpointRepository(Files.createTempDirectory("checkpoints").toString());
+		underTest.save(new Checkpoint(null, "index1_v1"));
+		assertNull(underTest.load("index1_v1").getSource());
+
+		// When
+		underTest.delete("index1_v1");
+
+		// Then
+		assertNull(underTest.load("index1_v1"));
+	}
+
+	@Test
+	public void fromIdShouldRebuildCheckpointedPartitions() {
+		for (ScrollPartition partition : Lists.newArrayList(ScrollPartition.all(), ScrollPartition.shard(3),
+				ScrollPartition.range("id", 0, 100), ScrollPartition.missing("id"), ScrollPartition.changedSince(42L))) {
+			assertEquals(partition, ScrollPartition.fromId(partition.getId()));
+		}
+	}
+}
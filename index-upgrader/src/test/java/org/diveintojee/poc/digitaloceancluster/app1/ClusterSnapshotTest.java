@@ -0,0 +1,103 @@
+package org.diveintojee.poc.digitaloceancluster.app1;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.elasticsearch.cluster.metadata.MappingMetaData;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class ClusterSnapshotTest {
+
+	@Test
+	public void findGenerationShouldReturnMostRecentPurgedGeneration() {
+		// Given
+		ClusterSnapshot underTest = snapshot("domains_v1", "domains_v3-1400000000000", "domains_v3-1500000000000", "domains_v30");
+
+		// When
+		Long generation = underTest.findGeneration("domains_v3");
+
+		// Then
+		assertEquals(Long.valueOf(1500000000000L), generation);
+	}
+
+	@Test
+	public void findGenerationShouldReturnNullWhenVersionWasNeverPurged() {
+		// Given
+		ClusterSnapshot underTest = snapshot("domains_v1", "domains_v1-next");
+
+		// When
+		Long generation = underTest.findGeneration("domains_v1");
+
+		// Then
+		assertNull(generation);
+	}
+
+	@Test
+	public void findLiveGenerationShouldFollowAliasWhenStaleOriginalWasNotDeletedYet() {
+		// Given
+		ClusterSnapshot underTest = snapshot(ImmutableMap.<String, Set<String>>of("domains", ImmutableSet.of("domains_v3-1500000000000")),
+				"domains_v3", "domains_v3-1500000000000");
+
+		// When
+		Long generation = underTest.findLiveGeneration("domains", "domains_v3");
+
+		// Then
+		assertEquals(Long.valueOf(1500000000000L), generation);
+	}
+
+	@Test
+	public void findLiveGenerationShouldKeepOriginalWhenPurgeStoppedBeforeAliasSwap() {
+		// Given
+		ClusterSnapshot underTest = snapshot(ImmutableMap.<String, Set<String>>of("domains", ImmutableSet.of("domains_v3")),
+				"domains_v3", "domains_v3-1500000000000");
+
+		// When
+		Long generation = underTest.findLiveGeneration("domains", "domains_v3");
+
+		// Then
+		assertNull(generation);
+	}
+
+	@Test
+	public void findLiveGenerationShouldPreferLatestGenerationWithoutAlias() {
+		// Given
+		ClusterSnapshot underTest = snapshot("domains_v3", "domains_v3-1400000000000", "domains_v3-1500000000000");
+
+		// When
+		Long generation = underTest.findLiveGeneration("domains", "domains_v3");
+
+		// Then
+		assertEquals(Long.valueOf(1500000000000L), generation);
+	}
+
+	@Test
+	public void nameShouldCarryGeneration() {
+		// Given
+		Index index = new Index();
+		index.setAlias("domains");
+		index.setVersion("v3");
+
+		// When
+		index.setGeneration(1500000000000L);
+
+		// Then
+		assertEquals("domains_v3-1500000000000", index.getName());
+	}
+
+	private ClusterSnapshot snapshot(String... indices) {
+		return snapshot(Collections.<String, Set<String>>emptyMap(), indices);
+	}
+
+	private ClusterSnapshot snapshot(Map<String, Set<String>> aliases, String... indices) {
+		ImmutableMap.Builder<String, Integer> shards = ImmutableMap.builder();
+		for (String index : indices) {
+			shards.put(index, 1);
+		}
+		return new ClusterSnapshot(shards.build(), aliases, Collections.<String, Map<String, MappingMetaData>>emptyMap());
+	}
+}
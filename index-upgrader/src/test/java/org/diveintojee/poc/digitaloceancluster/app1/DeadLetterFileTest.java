@@ -0,0 +1,118 @@
+package org.diveintojee.poc.digitaloceancluster.app1;
+
+import com.google.common.base.Charsets;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.rest.RestStatus;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+public class DeadLetterFileTest {
+
+	@Test
+	public void writeShouldAppendOneJsonLinePerDocument() throws IOException {
+		// Given
+		DeadLetterFile underTest = new DeadLetterFile(Files.createTempDirectory("dead-letters").toString(), "index1_v2");
+
+		// When
+		underTest.write(new IndexRequest("index1_v2", "domains", "1").source("{\"title\":\"one\"}"), 400, "MapperParsingException[failed]");
+		underTest.write(new DeleteRequest("index1_v2", "domains", "2"), 503, "UnavailableShardsException[timeout]");
+		underTest.close();
+
+		// Then
+		final List<String> lines = Files.readAllLines(underTest.getFile(), Charsets.UTF_8);
+		assertEquals(2, lines.size());
+		assertEquals(2L, underTest.getCount());
+		assertTrue(lines.get(0).contains("\"id\":\"1\""));
+		assertTrue(lines.get(0).contains("\"source\":{\"title\":\"one\"}"));
+		assertTrue(lines.get(1).contains("\"op\":\"delete\""));
+		assertTrue(lines.get(1).contains("UnavailableShardsException"));
+	}
+
+	@Test
+	public void countShouldIncludeDocumentsWrittenByPreviousRun() throws IOException {
+		// Given
+		String directory = Files.createTempDirectory("dead-letters").toString();
+		DeadLetterFile previous = new DeadLetterFile(directory, "index1_v2");
+		previous.write(new IndexRequest("index1_v2", "domains", "1").source("{\"title\":\"one\"}"), 400, "MapperParsingException[failed]");
+		previous.close();
+
+		// When
+		DeadLetterFile underTest = new DeadLetterFile(directory, "index1_v2");
+		underTest.write(new DeleteRequest("index1_v2", "domains", "2"), 503, "UnavailableShardsException[timeout]");
+		underTest.close();
+
+		// Then
+		assertEquals(2L, underTest.getCount());
+		assertEquals(2, Files.readAllLines(underTest.getFile(), Charsets.UTF_8).size());
+	}
+
+	@Test
+	public void rotateShouldSetPreviousRunAside() throws IOException {
+		// Given
+		DeadLetterFile underTest = new DeadLetterFile(Files.createTempDirectory("dead-letters").toString(), "index1_v2");
+		underTest.write(new IndexRequest("index1_v2", "domains", "1").source("{\"title\":\"one\"}"), 400, "MapperParsingException[failed]");
+
+		// When
+		Path rotated = underTest.rotate();
+
+		// Then
+		assertEquals(0L, underTest.getCount());
+		assertFalse(Files.exists(underTest.getFile()));
+		assertEquals(1, Files.readAllLines(rotated, Charsets.UTF_8).size());
+	}
+
+	@Test
+	public void closeShouldNotCreateFileWithoutFailures() throws IOException {
+		// Given
+		DeadLetterFile underTest = new DeadLetterFile(Files.createTempDirectory("dead-letters").toString(), "index1_v2");
+
+		// When
+		underTest.close();
+
+		// Then
+		assertFalse(Files.exists(underTest.getFile()));
+	}
+
+	@Test
+	public void bulkIndexerShouldRefuseRequestsOnceFailureBudgetIsExhausted() throws IOException, InterruptedException {
+		// Given
+		MigrationSettings settings = new MigrationSettings();
+		settings.setMaxFailures(0);
+		DeadLetterFile deadLetters = new DeadLetterFile(Files.createTempDirectory("dead-letters").toString(), "index1_v2");
+		deadLetters.write(new IndexRequest("index1_v2", "domains", "1").source("{\"title\":\"one\"}"), 400, "MapperParsingException[failed]");
+		Client client = mock(Client.class);
+		BulkIndexer underTest = new BulkIndexer(client, "index1_v2", settings, new Semaphore(1), deadLetters);
+
+		// When
+		try {
+			underTest.add(new IndexRequest("index1_v2", "domains", "2").source("{\"title\":\"two\"}"));
+			fail("IllegalStateException expected");
+		} catch (IllegalStateException expected) {
+			// Then
+			assertTrue(expected.getMessage().contains("over the budget of 0"));
+		} finally {
+			deadLetters.close();
+		}
+		verifyZeroInteractions(client);
+	}
+
+	@Test
+	public void isRejectionShouldOnlyRetryFullQueues() {
+		assertTrue(BulkIndexer.isRejection(RestStatus.TOO_MANY_REQUESTS, "whatever"));
+		assertTrue(BulkIndexer.isRejection(RestStatus.INTERNAL_SERVER_ERROR, "RemoteTransportException[...]; nested: EsRejectedExecutionException[rejected execution]"));
+		assertTrue(BulkIndexer.isRejection(new EsRejectedExecutionException("rejected execution")));
+		assertFalse(BulkIndexer.isRejection(RestStatus.BAD_REQUEST, "MapperParsingException[failed to parse]"));
+	}
+}
@@ -0,0 +1,161 @@
+package org.diveintojee.poc.digitaloceancluster.app1;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.Resources;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MigrationPlannerTest {
+
+	private static final String V1 = "{\"domains\":{\"dynamic\":\"strict\",\"properties\":{\"id\":{\"type\":\"long\"},\"title\":{\"type\":\"string\"}}}}";
+	private static final String V2 = "{\"domains\":{\"dynamic\":\"strict\",\"properties\":{\"id\":{\"type\":\"long\"},\"title\":{\"type\":\"string\"},\"imageUrl\":{\"type\":\"string\"}}}}";
+	private static final String V3 = "{\"domains\":{\"dynamic\":\"strict\",\"properties\":{\"id\":{\"type\":\"long\"},\"title\":{\"type\":\"string\"},\"imageUrl\":{\"type\":\"string\"},\"status\":{\"type\":\"string\"}}}}";
+	private static final String V3_RETYPED = "{\"domains\":{\"dynamic\":\"strict\",\"properties\":{\"id\":{\"type\":\"string\"},\"title\":{\"type\":\"string\"},\"imageUrl\":{\"type\":\"string\"}}}}";
+
+	private final MigrationPlanner underTest = new MigrationPlanner();
+
+	@Test
+	public void planShouldReindexStraightToLatestVersionWhenMappingsOnlyGrow() {
+		// Given
+		Index v1 = index("v1", V1);
+		Index v2 = index("v2", V2);
+		Index v3 = index("v3", V3);
+
+		// When
+		List<Index> targets = underTest.plan(v1, Lists.newArrayList(v2, v3));
+
+		// Then
+		assertEquals(Lists.newArrayList(v3), targets);
+	}
+
+	@Test
+	public void planShouldCreateLatestVersionOnlyWhenAliasDoesNotExist() {
+		// Given
+		Index v1 = index("v1", V1);
+		Index v2 = index("v2", V2);
+
+		// When
+		List<Index> targets = underTest.plan(null, Lists.newArrayList(v1, v2));
+
+		// Then
+		assertEquals(Lists.newArrayList(v2), targets);
+	}
+
+	@Test
+	public void planShouldStopAtIntermediateVersionWhenAFieldChangesType() {
+		// Given
+		Index v1 = index("v1", V1);
+		Index v2 = index("v2", V2);
+		Index v3 = index("v3", V3_RETYPED);
+
+		// When
+		List<Index> targets = underTest.plan(v1, Lists.newArrayList(v2, v3));
+
+		// Then
+		assertEquals(Lists.newArrayList(v2, v3), targets);
+	}
+
+	@Test
+	public void planShouldNotSkipVersionDeclaringATransformer() {
+		// Given
+		Index v1 = index("v1", V1);
+		Index v2 = index("v2", V2);
+		v2.setTransformer("org.example.ImageUrlTransformer");
+		Index v3 = index("v3", V3);
+
+		// When
+		List<Index> targets = underTest.plan(v1, Lists.newArrayList(v2, v3));
+
+		// Then
+		assertEquals(Lists.newArrayList(v2, v3), targets);
+	}
+
+	@Test
+	public void canReindexDirectlyShouldRejectMissingType() {
+		// Given
+		Index source = index("v1", V1);
+		Index target = new Index();
+		target.setAlias("index1");
+		target.setVersion("v2");
+
+		// When
+		boolean compatible = underTest.canReindexDirectly(source, target);
+
+		// Then
+		assertFalse(compatible);
+	}
+
+	@Test
+	public void shippedDomainsV2ShouldBeReindexableDirectlyFromV1() throws IOException {
+		// Given
+		Index v1 = shippedIndex("v1", "domains");
+		Index v2 = shippedIndex("v2", "domains", "domain");
+
+		// When
+		boolean compatible = underTest.canReindexDirectly(v1, v2);
+
+		// Then
+		assertTrue(compatible);
+	}
+
+	@Test
+	public void shippedDomainsShouldMigrateFromV1StraightToV3() throws IOException {
+		// Given
+		Index v1 = shippedIndex("v1", "domains");
+		Index v2 = shippedIndex("v2", "domains", "domain");
+		Index v3 = shippedIndex("v3", "domains", "domain");
+
+		// When
+		List<Index> targets = underTest.plan(v1, Lists.newArrayList(v2, v3));
+
+		// Then
+		assertEquals(Lists.newArrayList(v3), targets);
+	}
+
+	@Test
+	public void shippedDomainsTypesShouldBeMappedAlike() throws IOException {
+		for (String version : Lists.newArrayList("v2", "v3")) {
+			// Given
+			String domain = Resources.toString(Resources.getResource("migrations/domains/" + version + "/mappings/domain.json"), Charsets.UTF_8);
+			String domains = Resources.toString(Resources.getResource("migrations/domains/" + version + "/mappings/domains.json"), Charsets.UTF_8);
+
+			// When
+			Object domainDefinition = XContentHelper.convertToMap(domain.getBytes(Charsets.UTF_8), false).v2().get("domain");
+			Object domainsDefinition = XContentHelper.convertToMap(domains.getBytes(Charsets.UTF_8), false).v2().get("domains");
+
+			// Then
+			assertNotNull(domainDefinition);
+			assertEquals(version, domainDefinition, domainsDefinition);
+		}
+	}
+
+	private Index shippedIndex(String version, String... types) throws IOException {
+		Index index = new Index();
+		index.setAlias("domains");
+		index.setVersion(version);
+		for (String type : types) {
+			Mapping mapping = new Mapping();
+			mapping.setType(type);
+			mapping.setDefinition(Resources.toString(Resources.getResource("migrations/domains/" + version + "/mappings/" + type + ".json"), Charsets.UTF_8));
+			index.addMapping(mapping);
+		}
+		return index;
+	}
+
+	private Index index(String version, String definition) {
+		Index index = new Index();
+		index.setAlias("index1");
+		index.setVersion(version);
+		Mapping mapping = new Mapping();
+		mapping.setType("domains");
+		mapping.setDefinition(definition);
+		index.addMapping(mapping);
+		return index;
+	}
+}
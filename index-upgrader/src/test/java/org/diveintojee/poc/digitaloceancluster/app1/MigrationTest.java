@@ -1,17 +1,18 @@
 package org.diveintojee.poc.digitaloceancluster.app1;
 
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import org.elasticsearch.action.ListenableActionFuture;
 import org.elasticsearch.action.admin.indices.create.CreateIndexRequestBuilder;
 import org.elasticsearch.action.admin.indices.create.CreateIndexResponse;
-import org.elasticsearch.action.admin.indices.exists.indices.IndicesExistsRequestBuilder;
-import org.elasticsearch.action.admin.indices.exists.indices.IndicesExistsResponse;
 import org.elasticsearch.action.admin.indices.mapping.put.PutMappingRequestBuilder;
 import org.elasticsearch.action.admin.indices.mapping.put.PutMappingResponse;
 import org.elasticsearch.action.support.AbstractListenableActionFuture;
 import org.elasticsearch.client.AdminClient;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.client.IndicesAdminClient;
+import org.elasticsearch.cluster.metadata.MappingMetaData;
+import org.elasticsearch.common.settings.Settings;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.powermock.api.mockito.PowerMockito;
@@ -19,9 +20,12 @@ import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
 
+import static org.junit.Assert.assertEquals;
 import static org.mockito.Mockito.*;
 
 @RunWith(PowerMockRunner.class)
@@ -107,6 +111,22 @@ public class MigrationTest {
 		new Migration(client, null, target).createTargetIndex();
 	}
 
+	@Test
+	public void declaredSettingsShouldBeNormalizedUnderIndexPrefix() {
+		// Given
+		Client client = mock(Client.class);
+		Index target = mock(Index.class);
+		when(target.getSettings()).thenReturn("{\"settings\" : {\"number_of_shards\" : 1, \"index.number_of_replicas\" : 2, \"refresh_interval\" : \"30s\"}}");
+
+		// When
+		Settings declared = new Migration(client, null, target).declaredSettings();
+
+		// Then
+		assertEquals("1", declared.get("index.number_of_shards"));
+		assertEquals("2", declared.get("index.number_of_replicas"));
+		assertEquals("30s", declared.get("index.refresh_interval"));
+	}
+
 	@Test
 	public void bulkIndexTargetIndexFromSourceIndexShouldPerformNothingIfSourceIndexIsNull() throws InterruptedException, ExecutionException, IOException {
 		// Given
@@ -166,10 +186,10 @@ public class MigrationTest {
         when(client.admin()).thenReturn(adminClient);
         IndicesAdminClient indicesAdminClient = mock(IndicesAdminClient.class);
         when(adminClient.indices()).thenReturn(indicesAdminClient);
-        mockIndexExistence(sourceIndexName, false, indicesAdminClient);
+        ClusterStateCache clusterState = mockClusterState(Sets.<String>newHashSet());
 
 		// When
-		new Migration(client, source, target).bulkIndexTargetIndexFromSourceIndex();
+		new Migration(client, source, target, new MigrationSettings(), clusterState).bulkIndexTargetIndexFromSourceIndex();
 	}
 
 	@Test(expected = IllegalStateException.class)
@@ -186,11 +206,10 @@ public class MigrationTest {
         when(client.admin()).thenReturn(adminClient);
         IndicesAdminClient indicesAdminClient = mock(IndicesAdminClient.class);
         when(adminClient.indices()).thenReturn(indicesAdminClient);
-        mockIndexExistence(sourceIndexName, true, indicesAdminClient);
-        mockIndexExistence(targetIndexName, false, indicesAdminClient);
+        ClusterStateCache clusterState = mockClusterState(Sets.newHashSet(sourceIndexName));
 
 		// When
-		new Migration(client, source, target).bulkIndexTargetIndexFromSourceIndex();
+		new Migration(client, source, target, new MigrationSettings(), clusterState).bulkIndexTargetIndexFromSourceIndex();
 	}
 
     /**
@@ -213,8 +232,7 @@ public class MigrationTest {
         when(client.admin()).thenReturn(adminClient);
         IndicesAdminClient indicesAdminClient = mock(IndicesAdminClient.class);
         when(adminClient.indices()).thenReturn(indicesAdminClient);
-        mockIndexExistence(sourceIndexName, true, indicesAdminClient);
-        mockIndexExistence(targetIndexName, true, indicesAdminClient);
+        ClusterStateCache clusterState = mockClusterState(Sets.newHashSet(sourceIndexName, targetIndexName));
 
         SearchRequestBuilder searchRequestBuilder = mock(SearchRequestBuilder.class);
         when(client.prepareSearch(sourceIndexName)).thenReturn(searchRequestBuilder);
@@ -271,18 +289,19 @@ public class MigrationTest {
 //
 
 		// When
-		new Migration(client, source, target).bulkIndexTargetIndexFromSourceIndex();
+		new Migration(client, source, target, new MigrationSettings(), clusterState).bulkIndexTargetIndexFromSourceIndex();
 	}
      */
 
-    private void mockIndexExistence(String indexName, boolean shouldExist, IndicesAdminClient indicesAdminClient) throws InterruptedException, ExecutionException {
-        IndicesExistsRequestBuilder indicesExistsRequestBuilder = mock(IndicesExistsRequestBuilder.class);
-        when(indicesAdminClient.prepareExists(indexName)).thenReturn(indicesExistsRequestBuilder);
-        ListenableActionFuture<IndicesExistsResponse> indicesExistsResponseListenableActionFuture = mock(ListenableActionFuture.class);
-        when(indicesExistsRequestBuilder.execute()).thenReturn(indicesExistsResponseListenableActionFuture);
-        IndicesExistsResponse indicesExistsResponse = mock(IndicesExistsResponse.class);
-        when(indicesExistsResponseListenableActionFuture.get()).thenReturn(indicesExistsResponse);
-        when(indicesExistsResponse.isExists()).thenReturn(shouldExist);
+    private ClusterStateCache mockClusterState(Set<String> existingIndices) throws InterruptedException, ExecutionException {
+        Map<String, Integer> shards = Maps.newHashMap();
+        for (String index : existingIndices) {
+            shards.put(index, 1);
+        }
+        ClusterStateCache clusterState = mock(ClusterStateCache.class);
+        when(clusterState.get()).thenReturn(new ClusterSnapshot(shards, Collections.<String, Set<String>>emptyMap(),
+                Collections.<String, Map<String, MappingMetaData>>emptyMap()));
+        return clusterState;
     }
 
     private void mockMappingAcknowledgement(IndicesAdminClient indicesAdminClient, String indexName, String type, String definition, boolean shouldAcknowledge) throws InterruptedException, ExecutionException {
@@ -2,6 +2,11 @@ package org.diveintojee.poc.digitaloceancluster.app1;
 
 import com.google.common.collect.Maps;
 import org.diveintojee.poc.digitaloceancluster.app1.domain.Domain;
+import org.diveintojee.poc.digitaloceancluster.app1.domain.DomainLookup;
+import org.diveintojee.poc.digitaloceancluster.app1.domain.DomainOperation;
+import org.diveintojee.poc.digitaloceancluster.app1.domain.DomainOperationResult;
+import org.diveintojee.poc.digitaloceancluster.app1.domain.DomainPage;
+import org.diveintojee.poc.digitaloceancluster.app1.domain.DomainSearchResult;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.ParameterizedTypeReference;
@@ -38,6 +43,14 @@ public class ClusterAppClient {
         return restTemplate.postForLocation(getResourceLocation(), domain);
     }
 
+    public List<DomainOperationResult> bulk(List<DomainOperation> operations) {
+        ResponseEntity<List<DomainOperationResult>> response = restTemplate.exchange(getResourceLocation() + "/_bulk", HttpMethod.POST, new HttpEntity<>(operations), new ParameterizedTypeReference<List<DomainOperationResult>>() {
+        });
+        assertNotNull(response);
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        return response.getBody();
+    }
+
     public void refreshIndex() throws IOException {
         restTemplate.postForEntity(getResourceLocation() + "/index/refresh", HttpEntity.EMPTY, Void.class);
     }
@@ -49,6 +62,14 @@ public class ClusterAppClient {
         return responseEntity.getBody();
     }
 
+    public List<DomainLookup> loadDomains(List<Long> ids) {
+        ResponseEntity<List<DomainLookup>> response = restTemplate.exchange(getResourceLocation() + "/_mget", HttpMethod.POST, new HttpEntity<>(ids), new ParameterizedTypeReference<List<DomainLookup>>() {
+        });
+        assertNotNull(response);
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        return response.getBody();
+    }
+
     public void updateDomain(URI uri, Domain persisted) {
         restTemplate.put(uri, persisted);
     }
@@ -72,11 +93,39 @@ public class ClusterAppClient {
         return response.getBody();
     }
 
+    public DomainPage findDomainsPage(String cursor, int size) {
+        Map<String, Object> params = Maps.newHashMap();
+        params.put("size", size);
+        String url = getResourceLocation() + "?size={size}";
+        if (cursor != null) {
+            params.put("cursor", cursor);
+            url += "&cursor={cursor}";
+        }
+        ResponseEntity<DomainPage> response = restTemplate.getForEntity(url, DomainPage.class, params);
+        assertNotNull(response);
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        return response.getBody();
+    }
+
     public List<Domain> searchDomains(String keyword) {
-        Map<String, String> params = Maps.newHashMap();
+        return searchDomains(keyword, 0, 10, null, null).getItems();
+    }
+
+    public DomainSearchResult searchDomains(String keyword, int from, int size, String sort, String fields) {
+        Map<String, Object> params = Maps.newHashMap();
         params.put("q", keyword);
-        ResponseEntity<List<Domain>> response = restTemplate.exchange(getResourceLocation() + "/search?q={q}", HttpMethod.GET, null, new ParameterizedTypeReference<List<Domain>>() {
-        }, params);
+        params.put("from", from);
+        params.put("size", size);
+        String url = getResourceLocation() + "/search?q={q}&from={from}&size={size}";
+        if (sort != null) {
+            params.put("sort", sort);
+            url += "&sort={sort}";
+        }
+        if (fields != null) {
+            params.put("fields", fields);
+            url += "&fields={fields}";
+        }
+        ResponseEntity<DomainSearchResult> response = restTemplate.getForEntity(url, DomainSearchResult.class, params);
         assertNotNull(response);
         assertEquals(HttpStatus.OK, response.getStatusCode());
         return response.getBody();
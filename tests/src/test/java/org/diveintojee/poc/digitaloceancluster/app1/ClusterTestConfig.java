@@ -2,8 +2,8 @@ package org.diveintojee.poc.digitaloceancluster.app1;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.context.annotation.Bean;
-import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
 import org.springframework.context.annotation.PropertySource;
 import org.springframework.context.support.PropertySourcesPlaceholderConfigurer;
 import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
@@ -14,10 +14,13 @@ import static com.fasterxml.jackson.databind.DeserializationFeature.FAIL_ON_UNKN
 import static com.fasterxml.jackson.databind.SerializationFeature.INDENT_OUTPUT;
 
 /**
+ * Only the client is imported: the api classes share the base package and are on the test classpath for the load
+ * harness, a scan would pick them up.
+ *
  * @author louis.gueye@gmail.com
  */
 @Configuration
-@ComponentScan
+@Import(ClusterAppClient.class)
 @PropertySource(value = "file:app1-tests.properties")
 public class ClusterTestConfig {
 
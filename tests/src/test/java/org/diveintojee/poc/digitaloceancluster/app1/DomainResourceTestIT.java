@@ -3,11 +3,21 @@ package org.diveintojee.poc.digitaloceancluster.app1;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import org.diveintojee.poc.digitaloceancluster.app1.domain.Domain;
+import org.diveintojee.poc.digitaloceancluster.app1.domain.DomainLookup;
+import org.diveintojee.poc.digitaloceancluster.app1.domain.DomainOperation;
+import org.diveintojee.poc.digitaloceancluster.app1.domain.DomainOperationResult;
+import org.diveintojee.poc.digitaloceancluster.app1.domain.DomainPage;
+import org.diveintojee.poc.digitaloceancluster.app1.domain.DomainSearchResult;
+import org.apache.commons.lang3.RandomStringUtils;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import org.springframework.web.client.HttpClientErrorException;
@@ -154,4 +164,150 @@ public class DomainResourceTestIT {
         assertEquals(3, results.size());
     }
 
+    @Test
+    public void bulkShouldReportPerItemStatuses() throws IOException {
+
+        // Given
+        api.deleteAllDomains();
+        List<DomainOperation> creations = Lists.newArrayList();
+        for (int i = 0; i < 3; i++) {
+            creations.add(DomainOperation.create(Fixtures.validDomain()));
+        }
+        Domain invalid = Fixtures.createDomain(RandomStringUtils.randomAlphanumeric(Domain.TITLE_MAX_SIZE + 1), "description");
+        creations.add(DomainOperation.create(invalid));
+        List<DomainOperationResult> created = api.bulk(creations);
+        assertEquals(4, created.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(HttpStatus.CREATED.value(), created.get(i).getStatus());
+            assertNotNull(created.get(i).getId());
+        }
+        assertEquals(HttpStatus.BAD_REQUEST.value(), created.get(3).getStatus());
+
+        // When
+        final String brandNewTitle = "Brand new awesome title";
+        Domain update = Fixtures.createDomain(brandNewTitle, "description");
+        List<DomainOperationResult> results = api.bulk(Lists.newArrayList(
+                DomainOperation.update(created.get(0).getId(), update),
+                DomainOperation.delete(created.get(1).getId()),
+                DomainOperation.delete(Long.MAX_VALUE)));
+        api.refreshIndex();
+
+        // Then
+        assertEquals(HttpStatus.OK.value(), results.get(0).getStatus());
+        assertEquals(HttpStatus.OK.value(), results.get(1).getStatus());
+        assertEquals(HttpStatus.NOT_FOUND.value(), results.get(2).getStatus());
+        List<Domain> remaining = api.findAllDomains();
+        assertEquals(2, remaining.size());
+        for (Domain domain : remaining) {
+            if (domain.getId().equals(created.get(0).getId())) {
+                assertEquals(brandNewTitle, domain.getTitle());
+            } else {
+                assertEquals(created.get(2).getId(), domain.getId());
+            }
+        }
+    }
+
+    @Test
+    public void findDomainsPageShouldWalkEveryDomainOnce() throws IOException {
+
+        // Given
+        api.deleteAllDomains();
+        final int countInstances = 5;
+        for (int i = 0; i < countInstances; i++) {
+            api.createDomain(Fixtures.validDomain());
+        }
+        api.refreshIndex();
+
+        // When
+        List<Domain> walked = Lists.newArrayList();
+        int pages = 0;
+        String cursor = null;
+        do {
+            DomainPage page = api.findDomainsPage(cursor, 2);
+            walked.addAll(page.getItems());
+            cursor = page.getCursor();
+            pages++;
+        } while (cursor != null);
+
+        // Then
+        assertEquals(3, pages);
+        assertEquals(countInstances, walked.size());
+        assertEquals(Sets.newHashSet(api.findAllDomains()), Sets.newHashSet(walked));
+    }
+
+    @Test
+    public void searchDomainsShouldPageSortAndFilterFields() throws IOException {
+
+        // Given
+        api.deleteAllDomains();
+        api.createDomain(Fixtures.createDomain("Sit precari conductae ut vehementius quisque", "Et Valerius cum absentia mariti virginis Scipionis causa adultae ex erubesceret alitur ille diuturnum et ex cum virginis mariti mariti."));
+        api.createDomain(Fixtures.createDomain("Tempus coniunx id conductae hastam est conductae", "Inlustris Commagena civitatibus Hierapoli est Euphratensis Commagena Osdroenam dictum Euphratensis clementer Osdroenam civitatibus descriptione vetere ab Samosata ut Hierapoli."));
+        api.createDomain(Fixtures.createDomain("Uni cuius libidines praeter ac exitum Pisonis nec", "Et Valerius cum absentia mariti virginis Scipionis causa adultae ex erubesceret alitur ille diuturnum et ex cum virginis mariti mariti."));
+
+        // When
+        api.refreshIndex();
+        DomainSearchResult first = api.searchDomains("condu", 0, 1, "id:asc", "title");
+        DomainSearchResult second = api.searchDomains("condu", 1, 1, "id:asc", "title");
+
+        // Then
+        assertEquals(2, first.getTotal());
+        assertEquals(1, first.getItems().size());
+        assertEquals(1, second.getItems().size());
+        assertTrue(first.getItems().get(0).getId() < second.getItems().get(0).getId());
+        assertNotNull(first.getItems().get(0).getTitle());
+        assertNull(first.getItems().get(0).getDescription());
+    }
+
+    @Test
+    public void loadDomainsShouldReportMissingIdsPerItem() throws IOException {
+
+        // Given
+        api.deleteAllDomains();
+        Domain first = api.loadDomain(api.createDomain(Fixtures.validDomain()));
+        Domain second = api.loadDomain(api.createDomain(Fixtures.validDomain()));
+
+        // When
+        List<DomainLookup> lookups = api.loadDomains(Lists.newArrayList(second.getId(), Long.MAX_VALUE, first.getId()));
+
+        // Then
+        assertEquals(3, lookups.size());
+        assertEquals(second, lookups.get(0).getDomain());
+        assertFalse(lookups.get(1).isFound());
+        assertNull(lookups.get(1).getDomain());
+        assertEquals(first, lookups.get(2).getDomain());
+    }
+
+    @Test
+    public void conditionalRequestsShouldHonorEntityTags() throws IOException {
+
+        // Given
+        final URI uri = api.createDomain(Fixtures.validDomain());
+        api.refreshIndex();
+        ResponseEntity<Domain> loaded = restTemplate.getForEntity(uri, Domain.class);
+        final String etag = loaded.getHeaders().getETag();
+        assertNotNull(etag);
+
+        // When
+        HttpHeaders ifNoneMatch = new HttpHeaders();
+        ifNoneMatch.setIfNoneMatch(etag);
+        ResponseEntity<Domain> notModified = restTemplate.exchange(uri, HttpMethod.GET, new HttpEntity<>(ifNoneMatch), Domain.class);
+
+        // Then
+        assertEquals(HttpStatus.NOT_MODIFIED, notModified.getStatusCode());
+
+        // When
+        HttpHeaders ifMatch = new HttpHeaders();
+        ifMatch.setIfMatch(etag);
+        restTemplate.exchange(uri, HttpMethod.PUT, new HttpEntity<>(loaded.getBody(), ifMatch), Void.class);
+
+        // Then: the second update with the same tag would lose the first one
+        try {
+            restTemplate.exchange(uri, HttpMethod.PUT, new HttpEntity<>(loaded.getBody(), ifMatch), Void.class);
+            fail("expected {" + HttpClientErrorException.class + "}");
+        } catch (HttpClientErrorException e) {
+            assertEquals(HttpStatus.PRECONDITION_FAILED, e.getStatusCode());
+        }
+        api.deleteResource(uri);
+    }
+
 }
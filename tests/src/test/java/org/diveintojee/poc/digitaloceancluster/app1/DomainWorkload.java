@@ -0,0 +1,82 @@
+package org.diveintojee.poc.digitaloceancluster.app1;
+
+import com.google.common.collect.Lists;
+import org.diveintojee.poc.digitaloceancluster.app1.domain.Domain;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Runs one domain operation against the api through {@link ClusterAppClient}. Reads, updates and deletes target domains
+ * created by the workload; a delete takes its domain out of the pool before it is sent. Operations needing a domain fall
+ * back to a create once the pool is empty. Searches look for title prefixes of the seeded domains.
+ *
+ * @author louis.gueye@gmail.com
+ */
+public class DomainWorkload {
+
+    public enum Operation {
+        CREATE, GET, SEARCH, UPDATE, DELETE
+    }
+
+    private static final int QUERY_LENGTH = 3;
+    private static final int MAX_QUERIES = 100;
+
+    @Autowired
+    private ClusterAppClient api;
+
+    private final List<URI> uris = Lists.newArrayList();
+    private final List<String> queries = Lists.newArrayList();
+
+    /**
+     * Creates the domains the run starts with, and makes them searchable.
+     */
+    public void seed(int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            final Domain domain = Fixtures.validDomain();
+            add(api.createDomain(domain));
+            if (queries.size() < MAX_QUERIES) {
+                queries.add(domain.getTitle().substring(0, QUERY_LENGTH));
+            }
+        }
+        api.refreshIndex();
+    }
+
+    public void execute(Operation operation) throws IOException {
+        if (operation == Operation.SEARCH) {
+            api.searchDomains(queries.isEmpty() ? "" : queries.get(ThreadLocalRandom.current().nextInt(queries.size())));
+            return;
+        }
+        final URI uri = operation == Operation.CREATE ? null : operation == Operation.DELETE ? take() : pick();
+        if (uri == null) {
+            add(api.createDomain(Fixtures.validDomain()));
+        } else if (operation == Operation.GET) {
+            api.loadDomain(uri);
+        } else if (operation == Operation.UPDATE) {
+            api.updateDomain(uri, Fixtures.validDomain());
+        } else {
+            api.deleteResource(uri);
+        }
+    }
+
+    private synchronized void add(URI uri) {
+        uris.add(uri);
+    }
+
+    private synchronized URI pick() {
+        return uris.isEmpty() ? null : uris.get(ThreadLocalRandom.current().nextInt(uris.size()));
+    }
+
+    private synchronized URI take() {
+        if (uris.isEmpty()) return null;
+        final int i = ThreadLocalRandom.current().nextInt(uris.size());
+        // Swap with the last one, removal stays constant time
+        final URI taken = uris.get(i);
+        uris.set(i, uris.get(uris.size() - 1));
+        uris.remove(uris.size() - 1);
+        return taken;
+    }
+}
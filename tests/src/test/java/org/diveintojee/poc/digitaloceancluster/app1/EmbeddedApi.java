@@ -0,0 +1,44 @@
+package org.diveintojee.poc.digitaloceancluster.app1;
+
+import com.google.common.io.Files;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.context.embedded.EmbeddedWebApplicationContext;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.data.elasticsearch.repository.config.EnableElasticsearchRepositories;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * The api, started in-process against embedded stores: H2 for the database and a local Elasticsearch node for the
+ * index. Only the api packages are scanned, so that the test classes sharing the base package are left out; the test
+ * configurations import the client explicitly for the same reason. The index is the one Spring Data creates from the
+ * annotations, without the substring analyzers of the index-upgrader mappings: search runs the wildcard fallback. Delete
+ * all removes rows and documents instead of purging: H2 cannot be truncated the way MySQL is.
+ *
+ * @author louis.gueye@gmail.com
+ */
+@EnableAutoConfiguration
+@ComponentScan(basePackages = {
+        "org.diveintojee.poc.digitaloceancluster.app1.api",
+        "org.diveintojee.poc.digitaloceancluster.app1.persistence",
+        "org.diveintojee.poc.digitaloceancluster.app1.service"})
+@EnableJpaRepositories(basePackages = "org.diveintojee.poc.digitaloceancluster.app1.persistence.data")
+@EnableElasticsearchRepositories(basePackages = "org.diveintojee.poc.digitaloceancluster.app1.persistence.index")
+@EnableScheduling
+public class EmbeddedApi {
+
+    /**
+     * @param port 0 for any free port
+     */
+    public static EmbeddedWebApplicationContext start(int port) {
+        System.setProperty("es.path.data", Files.createTempDir().getAbsolutePath());
+        return (EmbeddedWebApplicationContext) new SpringApplicationBuilder(EmbeddedApi.class)
+                .properties("server.port=" + port, "app1.search.substring-fields=false", "app1.delete-all.purge=false")
+                .run();
+    }
+
+    public static int port(EmbeddedWebApplicationContext context) {
+        return context.getEmbeddedServletContainer().getPort();
+    }
+}
@@ -0,0 +1,218 @@
+package org.diveintojee.poc.digitaloceancluster.app1;
+
+import com.google.common.base.Splitter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Open-model load: operations arrive as a Poisson process at {@code app1.load.rate} per second, whatever the api
+ * response times, and are picked at random according to {@code app1.load.mix}. Late responses do not slow arrivals
+ * down, requests queue up instead.
+ * <p/>
+ * Response times are measured from the time an operation was due to start, not from the time a worker got to it: a
+ * stalled api delays every operation queued behind it, and those delays are recorded rather than omitted. Service
+ * times, measured from the actual start, are recorded too, the gap between both shows queueing. Operations of the
+ * warmup period are not recorded.
+ *
+ * @author louis.gueye@gmail.com
+ */
+public class LoadGenerator {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LoadGenerator.class);
+
+    private static final int SIGNIFICANT_DIGITS = 3;
+    private static final double MICROS_PER_MILLI = 1000.0;
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9, 99.99};
+
+    @Value("${app1.load.rate:100}")
+    private double rate;
+
+    @Value("${app1.load.warmup-seconds:10}")
+    private long warmupSeconds;
+
+    @Value("${app1.load.duration-seconds:60}")
+    private long durationSeconds;
+
+    /**
+     * Workers sending requests: the max number of requests in flight.
+     */
+    @Value("${app1.load.concurrency:64}")
+    private int concurrency;
+
+    @Value("${app1.load.mix:create:10,get:50,search:25,update:10,delete:5}")
+    private String mix;
+
+    @Autowired
+    private DomainWorkload workload;
+
+    private final Map<DomainWorkload.Operation, Stats> stats = new EnumMap<>(DomainWorkload.Operation.class);
+
+    private DomainWorkload.Operation[] operations;
+    private int[] cumulativeWeights;
+    private long elapsedNanos;
+
+    /**
+     * Latencies of one operation, in microseconds.
+     */
+    private static class Stats {
+        private final Recorder responseTimes = new Recorder(SIGNIFICANT_DIGITS);
+        private final Recorder serviceTimes = new Recorder(SIGNIFICANT_DIGITS);
+        private final AtomicLong errors = new AtomicLong();
+        private Histogram responseTimeHistogram;
+        private Histogram serviceTimeHistogram;
+    }
+
+    public void run() throws InterruptedException {
+        parseMix();
+        final ExecutorService workers = Executors.newFixedThreadPool(concurrency,
+                new ThreadFactoryBuilder().setNameFormat("load-%d").setDaemon(true).build());
+        final double meanIntervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        final long start = System.nanoTime();
+        final long recordFrom = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        final long end = recordFrom + TimeUnit.SECONDS.toNanos(durationSeconds);
+        LOGGER.info("Sending {} operations/s ({}) for {} s after a {} s warmup, {} in flight at most",
+                rate, mix, durationSeconds, warmupSeconds, concurrency);
+        long dueAt = start;
+        try {
+            while (dueAt < end) {
+                final long wait = dueAt - System.nanoTime();
+                if (wait > 0) {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                }
+                submit(workers, pick(), dueAt, dueAt >= recordFrom);
+                // Exponential inter-arrival times
+                dueAt += (long) (-Math.log(1 - ThreadLocalRandom.current().nextDouble()) * meanIntervalNanos);
+            }
+        } finally {
+            workers.shutdown();
+        }
+        if (!workers.awaitTermination(durationSeconds + warmupSeconds, TimeUnit.SECONDS)) {
+            LOGGER.warn("Operations still running after the run, they are not recorded");
+            workers.shutdownNow();
+        }
+        elapsedNanos = System.nanoTime() - recordFrom;
+        for (Stats operationStats : stats.values()) {
+            operationStats.responseTimeHistogram = operationStats.responseTimes.getIntervalHistogram();
+            operationStats.serviceTimeHistogram = operationStats.serviceTimes.getIntervalHistogram();
+        }
+    }
+
+    private void submit(ExecutorService workers, final DomainWorkload.Operation operation, final long dueAt, final boolean recorded) {
+        workers.execute(new Runnable() {
+            @Override
+            public void run() {
+                final long startedAt = System.nanoTime();
+                boolean failed = false;
+                try {
+                    workload.execute(operation);
+                } catch (Exception | AssertionError e) {
+                    failed = true;
+                    LOGGER.debug("{} failed", operation, e);
+                }
+                if (!recorded) return;
+                final long doneAt = System.nanoTime();
+                final Stats operationStats = stats.get(operation);
+                operationStats.responseTimes.recordValue(TimeUnit.NANOSECONDS.toMicros(doneAt - dueAt));
+                operationStats.serviceTimes.recordValue(TimeUnit.NANOSECONDS.toMicros(doneAt - startedAt));
+                if (failed) {
+                    operationStats.errors.incrementAndGet();
+                }
+            }
+        });
+    }
+
+    private void parseMix() {
+        final Map<String, String> weights = Splitter.on(',').trimResults().omitEmptyStrings().withKeyValueSeparator(':').split(mix);
+        operations = new DomainWorkload.Operation[weights.size()];
+        cumulativeWeights = new int[weights.size()];
+        int total = 0;
+        int i = 0;
+        for (Map.Entry<String, String> weight : weights.entrySet()) {
+            final DomainWorkload.Operation operation = DomainWorkload.Operation.valueOf(weight.getKey().trim().toUpperCase());
+            final int value = Integer.parseInt(weight.getValue().trim());
+            if (value < 0) throw new IllegalStateException("Negative weight for " + operation + " in mix '" + mix + "'");
+            total += value;
+            operations[i] = operation;
+            cumulativeWeights[i++] = total;
+            stats.put(operation, new Stats());
+        }
+        if (total == 0) throw new IllegalStateException("Mix '" + mix + "' has no operation to run");
+    }
+
+    private DomainWorkload.Operation pick() {
+        final int drawn = ThreadLocalRandom.current().nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        int i = 0;
+        while (cumulativeWeights[i] <= drawn) {
+            i++;
+        }
+        return operations[i];
+    }
+
+    /**
+     * Writes {@code summary.txt}, a table of percentiles per operation, and the full distribution of every operation as
+     * {@code <operation>.hgrm} files, in milliseconds. Those can be plotted with the HdrHistogram plotter.
+     */
+    public void report(File directory) throws FileNotFoundException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalStateException("Failed to create report directory '" + directory + "'");
+        }
+        final File summary = new File(directory, "summary.txt");
+        try (PrintStream out = new PrintStream(summary)) {
+            long total = 0;
+            for (Stats operationStats : stats.values()) {
+                total += operationStats.responseTimeHistogram.getTotalCount();
+            }
+            final double seconds = elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1);
+            out.printf("Target rate %.1f/s, achieved %.1f/s (%d operations in %.1f s), mix %s, concurrency %d%n%n",
+                    rate, total / seconds, total, seconds, mix, concurrency);
+            out.println("Response times (ms), from the time operations were due: corrected for coordinated omission");
+            table(out, true);
+            out.println();
+            out.println("Service times (ms), from the time operations started");
+            table(out, false);
+        }
+        for (Map.Entry<DomainWorkload.Operation, Stats> operationStats : stats.entrySet()) {
+            final String name = operationStats.getKey().name().toLowerCase();
+            try (PrintStream out = new PrintStream(new File(directory, name + ".hgrm"))) {
+                operationStats.getValue().responseTimeHistogram.outputPercentileDistribution(out, MICROS_PER_MILLI);
+            }
+            try (PrintStream out = new PrintStream(new File(directory, name + "-service.hgrm"))) {
+                operationStats.getValue().serviceTimeHistogram.outputPercentileDistribution(out, MICROS_PER_MILLI);
+            }
+        }
+        LOGGER.info("Load report written to '{}'", directory.getAbsolutePath());
+    }
+
+    private void table(PrintStream out, boolean responseTimes) {
+        out.printf("%-8s %10s %8s", "", "count", "errors");
+        for (double percentile : PERCENTILES) {
+            out.printf(" %10s", "p" + percentile);
+        }
+        out.printf(" %10s%n", "max");
+        for (Map.Entry<DomainWorkload.Operation, Stats> operationStats : stats.entrySet()) {
+            final Stats value = operationStats.getValue();
+            final Histogram histogram = responseTimes ? value.responseTimeHistogram : value.serviceTimeHistogram;
+            out.printf("%-8s %10d %8d", operationStats.getKey().name().toLowerCase(), histogram.getTotalCount(), value.errors.get());
+            for (double percentile : PERCENTILES) {
+                out.printf(" %10.3f", histogram.getValueAtPercentile(percentile) / MICROS_PER_MILLI);
+            }
+            out.printf(" %10.3f%n", histogram.getMaxValue() / MICROS_PER_MILLI);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package org.diveintojee.poc.digitaloceancluster.app1;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Strings;
+import com.google.common.collect.Maps;
+import com.google.common.net.HostAndPort;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.embedded.EmbeddedWebApplicationContext;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.support.PropertySourcesPlaceholderConfigurer;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.web.client.RestOperations;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.File;
+import java.util.Map;
+
+import static com.fasterxml.jackson.databind.DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES;
+
+/**
+ * Runs a {@link LoadGenerator} against the api at {@code app1.load.target} ({@code host:port}), or against an
+ * {@link EmbeddedApi} when no target is given. Every setting is a system property:
+ * <pre>
+ * mvn -pl tests verify -Pload-test -Dapp1.load.rate=500 -Dapp1.load.mix=get:80,search:20
+ * </pre>
+ *
+ * @author louis.gueye@gmail.com
+ */
+public class LoadRunner {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LoadRunner.class);
+
+    public static void main(String[] args) throws Exception {
+        final int concurrency = Integer.getInteger("app1.load.concurrency", 64);
+        // Keep one connection per worker alive, the JDK keeps 5 by default
+        if (System.getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections", String.valueOf(concurrency));
+        }
+        final String target = System.getProperty("app1.load.target");
+        EmbeddedWebApplicationContext embeddedApi = null;
+        final Map<String, Object> properties = Maps.newHashMap();
+        if (Strings.isNullOrEmpty(target)) {
+            embeddedApi = EmbeddedApi.start(Integer.getInteger("app1.load.local-port", 0));
+            properties.put("app1.host", "localhost");
+            properties.put("app1.port", EmbeddedApi.port(embeddedApi));
+        } else {
+            final HostAndPort hostAndPort = HostAndPort.fromString(target);
+            properties.put("app1.host", hostAndPort.getHostText());
+            properties.put("app1.port", hostAndPort.getPortOrDefault(80));
+        }
+        LOGGER.info("Load target is {}:{}", properties.get("app1.host"), properties.get("app1.port"));
+
+        final AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+        try {
+            context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("load-target", properties));
+            context.register(LoadRunner.class, ClusterAppClient.class, DomainWorkload.class, LoadGenerator.class);
+            context.refresh();
+            context.getBean(DomainWorkload.class).seed(Integer.getInteger("app1.load.seed", 1000));
+            final LoadGenerator generator = context.getBean(LoadGenerator.class);
+            generator.run();
+            generator.report(new File(System.getProperty("app1.load.report-directory", "target/load-report")));
+        } finally {
+            context.close();
+            if (embeddedApi != null) {
+                embeddedApi.close();
+            }
+        }
+    }
+
+    @Bean
+    public static PropertySourcesPlaceholderConfigurer propertySourcesPlaceholderConfigurer() {
+        return new PropertySourcesPlaceholderConfigurer();
+    }
+
+    /**
+     * Compact json: the load test measures the api, not the client formatting.
+     */
+    @Bean
+    public RestOperations restTemplate() {
+        final MappingJackson2HttpMessageConverter converter = new MappingJackson2HttpMessageConverter();
+        converter.setObjectMapper(new ObjectMapper().configure(FAIL_ON_UNKNOWN_PROPERTIES, false));
+        final RestTemplate restTemplate = new RestTemplate();
+        restTemplate.getMessageConverters().add(0, converter);
+        return restTemplate;
+    }
+}